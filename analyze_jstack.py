@@ -23,7 +23,7 @@ def analyze_file(p: Path):
         threads.append(cur)
 
     def is_reactor(t): return t["name"].startswith("reactor-http")
-    def is_elastic(t): return t["name"].startswith("boundedElastic")
+    def is_elastic(t): return t["name"].startswith(("boundedElastic", "push-offload"))
 
     reactor = [t for t in threads if is_reactor(t)]
     elastic = [t for t in threads if is_elastic(t)]
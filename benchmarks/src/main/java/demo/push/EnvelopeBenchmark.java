@@ -0,0 +1,58 @@
+package demo.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 应答信封本身的开销（order 的响应已经在手上）：
+ * - wrapOk：PushController.wrapOk 建 LinkedHashMap（含 Instant.now().toString()）
+ * - wrapOkSerialized：再加上 WebFlux 编码成字节那一步
+ * - splicedHead：passthrough 的预编码模板，只写会变的几个字段
+ *
+ * java -jar benchmarks/target/benchmarks.jar EnvelopeBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvelopeBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final NettyDataBufferFactory factory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private Map<String, Object> orderResp;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        orderResp = mapper.readValue(JsonHandlingBenchmark.ORDER_RESPONSE, Map.class);
+    }
+
+    @Benchmark
+    public Map<String, Object> wrapOk() {
+        return PushController.wrapOk("1-3f9a2c1e", System.currentTimeMillis(), "reactor-http-epoll-1",
+                orderResp, "webclient");
+    }
+
+    @Benchmark
+    public byte[] wrapOkSerialized() throws IOException {
+        return mapper.writeValueAsBytes(wrapOk());
+    }
+
+    @Benchmark
+    public int splicedHead() {
+        DataBuffer head = PassthroughHandler.envelopeHead(factory, "1-3f9a2c1e", "reactor-http-epoll-1", 12);
+        int n = head.readableByteCount();
+        DataBufferUtils.release(head);
+        return n;
+    }
+}
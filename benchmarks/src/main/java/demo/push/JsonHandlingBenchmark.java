@@ -0,0 +1,77 @@
+package demo.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次 /push 在 push 里的 JSON 工作量：
+ * - mapRoundTrip：其他模式的做法，入参 → Map → order 请求体，order 响应 → Map → wrapOk → 应答字节（4 遍 Jackson）
+ * - streaming：passthrough 的做法，流式扫出 reqId + 预编码模板拼 order 的原始字节
+ * 另外单独比一下只取 reqId：整个 readValue 成 Map vs 流式扫到就停。
+ * 分配率看 -prof gc（gc.alloc.rate.norm = 每次操作分配的字节）：
+ *
+ * java -jar benchmarks/target/benchmarks.jar JsonHandlingBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonHandlingBenchmark {
+
+    // 跟 trans 发的一样：reqId 在最前面
+    static final byte[] REQUEST = ("{\"reqId\":\"1-3f9a2c1e\",\"amt\":100,\"ts\":1760000000000}")
+            .getBytes(StandardCharsets.UTF_8);
+    // order 的响应：echo 回请求体
+    static final byte[] ORDER_RESPONSE = ("{\"ok\":true,\"sleepMs\":1834,\"echo\":{\"reqId\":\"1-3f9a2c1e\",\"amt\":100,"
+            + "\"ts\":1760000000000},\"thread\":\"http-nio-27000-exec-12\"}").getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final NettyDataBufferFactory factory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public byte[] mapRoundTrip() throws IOException {
+        Map<String, Object> body = mapper.readValue(REQUEST, Map.class);
+        String reqId = String.valueOf(body.getOrDefault("reqId", "NA"));
+        byte[] toOrder = mapper.writeValueAsBytes(body);
+        Map<String, Object> orderResp = mapper.readValue(ORDER_RESPONSE, Map.class);
+        Map<String, Object> out = PushController.wrapOk(reqId, System.currentTimeMillis(), "reactor-http-epoll-1",
+                orderResp, "webclient");
+        out.put("orderSource", "order");
+        byte[] resp = mapper.writeValueAsBytes(out);
+        return toOrder.length > resp.length ? toOrder : resp;
+    }
+
+    @Benchmark
+    public int streaming() throws IOException {
+        DataBuffer in = factory.wrap(REQUEST);
+        String reqId = PassthroughHandler.readReqId(in);
+        DataBuffer head = PassthroughHandler.envelopeHead(factory, reqId, "reactor-http-epoll-1", 12);
+        // order 的字节原样接在 head 后面，这里只算长度，不拷贝
+        int length = head.readableByteCount() + ORDER_RESPONSE.length;
+        DataBufferUtils.release(head);
+        return length;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Object reqIdViaMap() throws IOException {
+        return mapper.readValue(REQUEST, Map.class).get("reqId");
+    }
+
+    @Benchmark
+    public String reqIdStreaming() throws IOException {
+        return PassthroughHandler.readReqId(factory.wrap(REQUEST));
+    }
+}
@@ -0,0 +1,86 @@
+package demo.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 端到端基准用的进程内 order：POST /order 和 /orders/batch，固定延迟后回 order 同样格式的 JSON。
+ * 延迟用定时器（不占线程），测的是 push 各模式自己的差别，不是 order 的线程模型。
+ * 用自己的 event loop：跟 push 共用全局的 reactor-netty 线程的话，blocking 模式卡住 event loop 时桩也跟着卡住，互相等死。
+ */
+class OrderStub implements AutoCloseable {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final LoopResources loops = LoopResources.create("order-stub", 2, true);
+    private final DisposableServer server;
+
+    OrderStub(long delayMs) {
+        Duration delay = Duration.ofMillis(delayMs);
+        server = HttpServer.create()
+                .tcpConfiguration(tcp -> tcp.runOn(loops))
+                .host("127.0.0.1")
+                .port(0)
+                .route(routes -> routes
+                        .post("/order", (req, res) -> req.receive().aggregate().asByteArray()
+                                .delayElement(delay)
+                                .flatMap(body -> res.header("Content-Type", "application/json")
+                                        .sendByteArray(Mono.just(orderResp(body, delayMs)))
+                                        .then()))
+                        .post("/orders/batch", (req, res) -> req.receive().aggregate().asByteArray()
+                                .delayElement(delay)
+                                .flatMap(body -> res.header("Content-Type", "application/json")
+                                        .sendByteArray(Mono.just(batchResp(body, delayMs)))
+                                        .then())))
+                .bindNow();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.port();
+    }
+
+    private byte[] orderResp(byte[] body, long sleepMs) {
+        try {
+            return mapper.writeValueAsBytes(resp(mapper.readValue(body, Map.class), sleepMs));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private byte[] batchResp(byte[] body, long sleepMs) {
+        try {
+            List<?> items = mapper.readValue(body, List.class);
+            List<Object> out = new ArrayList<>(items.size());
+            for (Object item : items) {
+                out.add(resp(item, sleepMs));
+            }
+            return mapper.writeValueAsBytes(out);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static Map<String, Object> resp(Object echo, long sleepMs) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("ok", true);
+        m.put("sleepMs", sleepMs);
+        m.put("echo", echo);
+        m.put("thread", "order-stub");
+        return m;
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+        loops.dispose();
+    }
+}
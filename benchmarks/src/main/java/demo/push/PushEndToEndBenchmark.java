@@ -0,0 +1,99 @@
+package demo.push;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 端到端：进程内起一个 order 桩（固定延迟）和一个真正的 push（Spring Boot，随机端口），
+ * 压测线程走 HTTP 打 POST /push，按 push.mode 比吞吐和延迟分布。
+ * - 不读 push 的 application.yml（spring.config.name 换掉了），只用下面的参数 + PushProperties 默认值，换机器/换版本结果可比
+ * - 压测客户端和 order 桩各用自己的 event loop，不跟 push 抢全局的 reactor-netty 线程
+ * - 采样器、看门狗、连接池日志、请求日志都关掉，只留请求路径本身
+ * - virtual 模式要 JDK 21 构建，默认不跑，需要时 -p mode=virtual
+ *
+ * java -jar benchmarks/target/benchmarks.jar PushEndToEndBenchmark
+ * java -jar benchmarks/target/benchmarks.jar PushEndToEndBenchmark -p mode=webclient,passthrough -p orderDelayMs=50 -t 64
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class PushEndToEndBenchmark {
+
+    @Param({"blocking", "offload", "webclient", "batch", "asyncapache", "passthrough"})
+    public String mode;
+
+    @Param({"20"})
+    public long orderDelayMs;
+
+    private static final String OK_PREFIX = "{\"retCode\":\"" + PushController.RET_OK + "\"";
+
+    private final AtomicLong seq = new AtomicLong();
+
+    private OrderStub order;
+    private ConfigurableApplicationContext push;
+    private LoopResources loops;
+    private ConnectionProvider provider;
+    private HttpClient client;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        order = new OrderStub(orderDelayMs);
+        push = new SpringApplicationBuilder(PushApplication.class)
+                .run("--server.port=0",
+                        "--spring.config.name=push-e2e",
+                        "--push.mode=" + mode,
+                        "--push.orderBaseUrl=" + order.baseUrl(),
+                        "--push.sampler.enabled=false",
+                        "--push.watchdog.enabled=false",
+                        "--push.log.sampleRate=0",
+                        "--push.httpclient.poolLogEnabled=false",
+                        "--push.httpclient.maxTotal=200",
+                        "--push.httpclient.maxPerRoute=200",
+                        "--push.webclient.maxConnections=200",
+                        "--logging.level.root=WARN");
+        int port = Integer.parseInt(push.getEnvironment().getProperty("local.server.port"));
+        loops = LoopResources.create("bench-client", 2, true);
+        provider = ConnectionProvider.builder("bench-push").maxConnections(256).pendingAcquireMaxCount(-1).build();
+        client = HttpClient.create(provider)
+                .tcpConfiguration(tcp -> tcp.runOn(loops))
+                .baseUrl("http://127.0.0.1:" + port)
+                .headers(h -> h.set("Content-Type", "application/json"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (push != null) push.close();
+        if (provider != null) provider.disposeLater().block(Duration.ofSeconds(5));
+        if (loops != null) loops.dispose();
+        if (order != null) order.close();
+    }
+
+    @Benchmark
+    public String push() {
+        String body = "{\"reqId\":\"bench-" + seq.incrementAndGet() + "\",\"amt\":100,\"ts\":"
+                + System.currentTimeMillis() + "}";
+        String resp = client.post()
+                .uri("/push")
+                .send(ByteBufFlux.fromString(Mono.just(body)))
+                .responseSingle((r, buf) -> buf.asString())
+                .block(Duration.ofSeconds(30));
+        if (resp == null || !resp.startsWith(OK_PREFIX)) {
+            throw new IllegalStateException("mode=" + mode + " unexpected response: " + resp);
+        }
+        return resp;
+    }
+}
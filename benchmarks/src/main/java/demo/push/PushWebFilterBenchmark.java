@@ -0,0 +1,66 @@
+package demo.push;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PushWebFilter 每个 /push 请求的固定开销（建 Sample、记 PushMetrics、抽样判断），不起服务器：
+ * baseline 是同样的 exchange 直接走 chain，两者的差就是 filter 的成本。
+ * sampleRate=1.0 时会调 PUSH_HTTP 的 log.info，但 benchmarks 的日志级别是 WARN，只算到判断为止，不含真正写日志。
+ *
+ * java -jar benchmarks/target/benchmarks.jar PushWebFilterBenchmark -t 4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushWebFilterBenchmark {
+
+    @Param({"0.0", "1.0"})
+    public double sampleRate;
+
+    private PushWebFilter filter;
+
+    private final WebFilterChain chain = exchange -> {
+        exchange.getResponse().setStatusCode(HttpStatus.OK);
+        return Mono.empty();
+    };
+
+    @Setup
+    public void setup() {
+        PushProperties props = new PushProperties();
+        props.setMode("webclient");
+        props.getLog().setSampleRate(sampleRate);
+        // 没有 virtualScheduler（相当于 JDK 8 构建）
+        ModeRouter router = new ModeRouter(props, new StaticListableBeanFactory().getBeanProvider(Scheduler.class));
+        filter = new PushWebFilter(new PushMetrics(props), router);
+    }
+
+    private static MockServerWebExchange exchange() {
+        return MockServerWebExchange.from(MockServerHttpRequest.post("/push"));
+    }
+
+    @Benchmark
+    public Object baseline() {
+        MockServerWebExchange exchange = exchange();
+        chain.filter(exchange).block();
+        return exchange;
+    }
+
+    @Benchmark
+    public Object filtered() {
+        MockServerWebExchange exchange = exchange();
+        filter.filter(exchange, chain).block();
+        return exchange;
+    }
+}
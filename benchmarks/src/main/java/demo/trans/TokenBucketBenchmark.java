@@ -0,0 +1,73 @@
+package demo.trans;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * trans 发压核心（取令牌）的吞吐上限：原来的 synchronized 桶 vs 无锁、按时间补充的桶（单个取 / 批量取）。
+ * 速率设得足够大，桶永远不空，测的是纯粹的取令牌开销和多线程争用。
+ *
+ * java -jar benchmarks/target/benchmarks.jar TokenBucketBenchmark -t 8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenBucketBenchmark {
+
+    private static final int BATCH = 64;
+
+    private LegacyTokenBucket legacy;
+    private TransApplication.TokenBucket bucket;
+
+    @Setup
+    public void setup() {
+        legacy = new LegacyTokenBucket(Integer.MAX_VALUE);
+        bucket = new TransApplication.TokenBucket(Integer.MAX_VALUE, 1e12);
+    }
+
+    /** 原实现：tick 线程 add，launcher 逐个 tryConsumeOne，这里两者一起算一次操作 */
+    @Benchmark
+    public boolean legacySynchronized() {
+        legacy.add(1.0);
+        return legacy.tryConsumeOne();
+    }
+
+    @Benchmark
+    public int lockFreeSingle() {
+        return bucket.tryAcquire(1);
+    }
+
+    /** 每次批量取 64 个，结果按令牌数计（ops/s = 令牌/s） */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int lockFreeBatch() {
+        return bucket.tryAcquire(BATCH);
+    }
+
+    /** 原来 TransApplication.TokenBucket 的实现，留作对照 */
+    static class LegacyTokenBucket {
+        private final int capacity;
+        private double tokens;
+
+        LegacyTokenBucket(int capacity) {
+            this.capacity = Math.max(1, capacity);
+        }
+
+        synchronized void add(double n) {
+            if (n <= 0) return;
+            tokens = Math.min(capacity, tokens + n);
+        }
+
+        synchronized boolean tryConsumeOne() {
+            if (tokens >= 1.0) {
+                tokens -= 1.0;
+                return true;
+            }
+            return false;
+        }
+    }
+}
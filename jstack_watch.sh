@@ -53,15 +53,15 @@ reactor_rest=$(awk '
 ' "$OUTDIR"/jstack_*.txt)
 echo "[4] RestTemplate.exchange inside reactor-http thread blocks (key signal): $reactor_rest"
 
-# 5) boundedElastic threads doing RestTemplate.exchange (offload signal)
+# 5) boundedElastic / push-offload threads doing RestTemplate.exchange (offload signal)
 elastic_rest=$(awk '
   BEGIN{in=0; c=0}
-  /^"boundedElastic/ {in=1; next}
+  /^"(boundedElastic|push-offload)/ {in=1; next}
   /^"/ {in=0}
   { if(in && $0 ~ /org\.springframework\.web\.client\.RestTemplate\.exchange/) c++ }
   END{print c}
 ' "$OUTDIR"/jstack_*.txt)
-echo "[5] RestTemplate.exchange inside boundedElastic thread blocks (offload works): $elastic_rest"
+echo "[5] RestTemplate.exchange inside boundedElastic/push-offload thread blocks (offload works): $elastic_rest"
 
 echo
 echo "=============== How to read ==============="
@@ -0,0 +1,242 @@
+package demo.order;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.HistogramLogReader;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * order 模拟下游耗时的分布模型（order.latency.model）。
+ * 真实下游是长尾的，均匀分布会让 push 各模式的 p99 看起来比实际好。
+ */
+public interface LatencyModel {
+
+    /** 采样一次耗时（毫秒） */
+    int nextMs();
+
+    /** 日志里打印用 */
+    String describe();
+
+    static LatencyModel create(OrderProperties props) {
+        OrderProperties.Latency lp = props.getLatency();
+        OrderProperties.Sleep sp = props.getSleep();
+        String model = lp.getModel() == null ? "uniform" : lp.getModel().toLowerCase(Locale.ROOT);
+
+        switch (model) {
+            case "uniform":
+                return new Uniform(sp.getMinMs(), sp.getMaxMs());
+            case "lognormal":
+                return new LogNormal(lp.getLognormal().getMedianMs(), lp.getLognormal().getSigma(),
+                        lp.getLognormal().getMaxMs());
+            case "bimodal":
+                return new Bimodal(new Uniform(sp.getMinMs(), sp.getMaxMs()),
+                        lp.getBimodal().getStallProbability(),
+                        new Uniform(lp.getBimodal().getStallMinMs(), lp.getBimodal().getStallMaxMs()));
+            case "percentiles":
+                return Percentiles.parse(lp.getPercentiles());
+            case "histogram":
+                return HistogramReplay.load(lp.getHistogram().getFile(), lp.getHistogram().getUnit());
+            default:
+                throw new IllegalArgumentException("unknown order.latency.model: " + lp.getModel());
+        }
+    }
+
+    /** [minMs, maxMs] 均匀分布，原来的 order.sleep 行为 */
+    final class Uniform implements LatencyModel {
+        private final int min;
+        private final int max;
+
+        Uniform(int min, int max) {
+            this.min = min;
+            this.max = max <= min ? min + 1 : max; // 防御
+        }
+
+        @Override public int nextMs() {
+            return ThreadLocalRandom.current().nextInt(min, max + 1);
+        }
+
+        @Override public String describe() {
+            return "uniform[" + min + "," + max + "]";
+        }
+    }
+
+    /** 对数正态：exp(ln(median) + sigma * N(0,1))，截断到 maxMs */
+    final class LogNormal implements LatencyModel {
+        private final double mu;
+        private final double sigma;
+        private final int medianMs;
+        private final int maxMs;
+
+        LogNormal(int medianMs, double sigma, int maxMs) {
+            this.medianMs = Math.max(1, medianMs);
+            this.mu = Math.log(this.medianMs);
+            this.sigma = sigma;
+            this.maxMs = maxMs;
+        }
+
+        @Override public int nextMs() {
+            double v = Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+            return (int) Math.min(maxMs, Math.round(v));
+        }
+
+        @Override public String describe() {
+            return "lognormal(median=" + medianMs + ",sigma=" + sigma + ",max=" + maxMs + ")";
+        }
+    }
+
+    /** 大部分请求走 normal，按 stallProbability 落到 stall 区间（偶发的多秒卡顿） */
+    final class Bimodal implements LatencyModel {
+        private final LatencyModel normal;
+        private final double stallProbability;
+        private final LatencyModel stall;
+
+        Bimodal(LatencyModel normal, double stallProbability, LatencyModel stall) {
+            this.normal = normal;
+            this.stallProbability = stallProbability;
+            this.stall = stall;
+        }
+
+        @Override public int nextMs() {
+            return ThreadLocalRandom.current().nextDouble() < stallProbability ? stall.nextMs() : normal.nextMs();
+        }
+
+        @Override public String describe() {
+            return "bimodal(" + normal.describe() + ",stallP=" + stallProbability + "," + stall.describe() + ")";
+        }
+    }
+
+    /**
+     * 按给定分位点做逆 CDF 采样，点之间线性插值。
+     * 格式 "50:2500,90:4000,99:5500,100:8000"（百分位:毫秒），0 分位默认等于第一个点。
+     */
+    final class Percentiles implements LatencyModel {
+        private final double[] pcts;
+        private final int[] values;
+        private final String spec;
+
+        private Percentiles(double[] pcts, int[] values, String spec) {
+            this.pcts = pcts;
+            this.values = values;
+            this.spec = spec;
+        }
+
+        static Percentiles parse(String spec) {
+            if (spec == null || spec.trim().isEmpty()) {
+                throw new IllegalArgumentException("order.latency.percentiles is empty");
+            }
+            List<double[]> points = new ArrayList<>();
+            for (String part : spec.split(",")) {
+                String[] kv = part.trim().split(":");
+                if (kv.length != 2) {
+                    throw new IllegalArgumentException("bad percentile point '" + part + "', expect p:ms");
+                }
+                points.add(new double[]{Double.parseDouble(kv[0].trim()), Double.parseDouble(kv[1].trim())});
+            }
+            points.sort((a, b) -> Double.compare(a[0], b[0]));
+
+            double[] pcts = new double[points.size() + 1];
+            int[] values = new int[points.size() + 1];
+            pcts[0] = 0;
+            values[0] = (int) points.get(0)[1];
+            for (int i = 0; i < points.size(); i++) {
+                pcts[i + 1] = points.get(i)[0];
+                values[i + 1] = (int) points.get(i)[1];
+            }
+            return new Percentiles(pcts, values, spec);
+        }
+
+        @Override public int nextMs() {
+            double u = ThreadLocalRandom.current().nextDouble() * pcts[pcts.length - 1];
+            int i = Arrays.binarySearch(pcts, u);
+            if (i >= 0) return values[i];
+            int hi = -i - 1;
+            int lo = hi - 1;
+            double frac = (u - pcts[lo]) / (pcts[hi] - pcts[lo]);
+            return (int) Math.round(values[lo] + frac * (values[hi] - values[lo]));
+        }
+
+        @Override public String describe() {
+            return "percentiles(" + spec + ")";
+        }
+    }
+
+    /**
+     * 从产线抓的 HdrHistogram 日志（.hlog）回放：把所有区间合并成一个分布，再按计数加权采样。
+     * unit 是文件里数值的单位（ms / us / ns）。
+     */
+    final class HistogramReplay implements LatencyModel {
+        private final long[] cumulative;
+        private final int[] valuesMs;
+        private final long total;
+        private final String file;
+
+        private HistogramReplay(long[] cumulative, int[] valuesMs, String file) {
+            this.cumulative = cumulative;
+            this.valuesMs = valuesMs;
+            this.total = cumulative.length == 0 ? 0 : cumulative[cumulative.length - 1];
+            this.file = file;
+        }
+
+        static HistogramReplay load(String file, String unit) {
+            if (file == null || file.trim().isEmpty()) {
+                throw new IllegalArgumentException("order.latency.histogram.file is empty");
+            }
+            TimeUnit tu = parseUnit(unit);
+
+            Histogram merged = new Histogram(3);
+            try {
+                HistogramLogReader reader = new HistogramLogReader(file);
+                Histogram h;
+                while ((h = (Histogram) reader.nextIntervalHistogram()) != null) {
+                    merged.add(h);
+                }
+                reader.close();
+            } catch (FileNotFoundException e) {
+                throw new IllegalArgumentException("histogram file not found: " + file, e);
+            }
+            if (merged.getTotalCount() == 0) {
+                throw new IllegalArgumentException("histogram file has no samples: " + file);
+            }
+
+            List<long[]> buckets = new ArrayList<>();
+            for (HistogramIterationValue v : merged.recordedValues()) {
+                buckets.add(new long[]{v.getValueIteratedTo(), v.getCountAtValueIteratedTo()});
+            }
+            long[] cumulative = new long[buckets.size()];
+            int[] valuesMs = new int[buckets.size()];
+            long acc = 0;
+            for (int i = 0; i < buckets.size(); i++) {
+                acc += buckets.get(i)[1];
+                cumulative[i] = acc;
+                valuesMs[i] = (int) Math.min(Integer.MAX_VALUE, tu.toMillis(buckets.get(i)[0]));
+            }
+            return new HistogramReplay(cumulative, valuesMs, file);
+        }
+
+        private static TimeUnit parseUnit(String unit) {
+            switch (unit == null ? "ms" : unit.toLowerCase(Locale.ROOT)) {
+                case "ns": return TimeUnit.NANOSECONDS;
+                case "us": return TimeUnit.MICROSECONDS;
+                case "ms": return TimeUnit.MILLISECONDS;
+                default: throw new IllegalArgumentException("unknown histogram unit: " + unit);
+            }
+        }
+
+        @Override public int nextMs() {
+            long r = ThreadLocalRandom.current().nextLong(total);
+            int i = Arrays.binarySearch(cumulative, r + 1);
+            return valuesMs[i >= 0 ? i : -i - 1];
+        }
+
+        @Override public String describe() {
+            return "histogram(" + file + ",samples=" + total + ")";
+        }
+    }
+}
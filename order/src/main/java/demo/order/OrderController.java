@@ -2,42 +2,251 @@ package demo.order;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 public class OrderController {
     private static final Logger log = LoggerFactory.getLogger(OrderController.class);
 
+    // 异步模式下，DeferredResult 在 sleepMs 之后还没完成就算超时（正常不会发生）
+    private static final long ASYNC_TIMEOUT_SLACK_MS = 5000;
+
+    // sync 模式等落盘最多这么久（再受截止时间限制），committer 卡住/已停时不把 Tomcat 线程挂死
+    private static final long JOURNAL_WAIT_MAX_MS = 5000;
+
+    // 上游（trans → push）传下来的绝对截止时间，epoch 毫秒
+    static final String DEADLINE_HEADER = "X-Deadline";
+
     private final OrderProperties props;
+    private final TimerWheel timer;
+    private final LatencyModel latency;
+    private final OrderJournal journal;
 
-    public OrderController(OrderProperties props) {
+    public OrderController(OrderProperties props, OrderJournal journal) {
         this.props = props;
+        this.journal = journal;
+        this.latency = LatencyModel.create(props);
+        log.info("ORDER latency model={}", latency.describe());
+        this.timer = new TimerWheel("order-timer", props.getAsync().getTickMs(), props.getAsync().getWheelSize());
     }
 
+    @PreDestroy
+    public void shutdown() {
+        timer.stop();
+    }
+
+    /**
+     * sync 模式返回 Map（Tomcat 线程 sleep）；async 模式返回 DeferredResult，由时间轮到点完成，
+     * Spring MVC 按返回值的实际类型选择处理方式。
+     * 带 X-Deadline 时：到达时已过期直接 504 不干活；干到一半到截止时间就停（sleep/定时只到截止时间），同样 504，
+     * 不再为没人等的响应占着 Tomcat 线程。
+     * 开了 order.journal 时：做过的 reqId 直接返回存下的结果（replayed=true）；新做完的落盘之后才应答。
+     */
     @PostMapping("/order")
-    public Map<String, Object> order(@RequestBody Map<String, Object> body) throws Exception {
-        String reqId = String.valueOf(body.getOrDefault("reqId", "NA"));
+    public Object order(@RequestBody Map<String, Object> body,
+                        @RequestHeader(value = DEADLINE_HEADER, required = false) Long deadlineMs) throws Exception {
+        String reqId = String.valueOf(body.getOrDefault("reqId", OrderJournal.NO_REQ_ID));
         long start = System.currentTimeMillis();
 
-        int min = props.getMinMs();
-        int max = props.getMaxMs();
-        if (max <= min) { // 防御
-            max = min + 1;
+        long remaining = remainingMs(deadlineMs);
+        if (remaining <= 0) {
+            log.info("ORDER_BIZ skip reqId={} lateMs={} (deadline passed)", reqId, -remaining);
+            return deadlineExceeded(0);
+        }
+
+        Map<String, Object> stored = journal.lookup(reqId);
+        if (stored != null) {
+            log.info("ORDER_BIZ replay reqId={} costMs={}", reqId, System.currentTimeMillis() - start);
+            return replayed(stored);
         }
 
-        log.info("ORDER_BIZ start reqId={} sleepRange=[{},{}] thread={}",
-                reqId, min, max, Thread.currentThread().getName());
+        int sleepMs = latency.nextMs();
+        // 截止时间比耗时早：只干到截止时间
+        final boolean cut = sleepMs > remaining;
+        final int workMs = cut ? (int) remaining : sleepMs;
+        log.info("ORDER_BIZ start reqId={} sleepMs={} thread={}",
+                reqId, sleepMs, Thread.currentThread().getName());
+
+        if (isAsync()) {
+            DeferredResult<Object> result = new DeferredResult<>(workMs + ASYNC_TIMEOUT_SLACK_MS);
+            timer.schedule(() -> {
+                long cost = System.currentTimeMillis() - start;
+                if (cut) {
+                    log.info("ORDER_BIZ abort reqId={} sleepMs={} costMs={} (deadline)", reqId, sleepMs, cost);
+                    result.setResult(deadlineExceeded(workMs));
+                    return;
+                }
+                log.info("ORDER_BIZ done reqId={} sleepMs={} costMs={}", reqId, sleepMs, cost);
+                persist(reqId, buildResp(body, sleepMs)).whenComplete((resp, e) -> {
+                    if (e != null) {
+                        result.setErrorResult(e);
+                    } else {
+                        result.setResult(resp);
+                    }
+                });
+            }, workMs);
+            return result;
+        }
 
-        int sleepMs = ThreadLocalRandom.current().nextInt(min, max + 1);
-        Thread.sleep(sleepMs);
+        Thread.sleep(workMs);
 
         long cost = System.currentTimeMillis() - start;
+        if (cut) {
+            log.info("ORDER_BIZ abort reqId={} sleepMs={} costMs={} (deadline)", reqId, sleepMs, cost);
+            return deadlineExceeded(workMs);
+        }
         log.info("ORDER_BIZ done reqId={} sleepMs={} costMs={}", reqId, sleepMs, cost);
 
+        // group commit 时跟同一时刻做完的其他请求共用一次 force
+        return awaitJournal(persist(reqId, buildResp(body, sleepMs)), deadlineMs, workMs);
+    }
+
+    /**
+     * 批量下单：N 个订单只付一次下游耗时（整批 sleep 一次），按提交顺序返回 N 个结果。
+     * 开了 order.journal 时，做过的 reqId 用存下的结果，只有新的才算进这一批；全都做过就不 sleep。
+     */
+    @PostMapping("/orders/batch")
+    public Object batch(@RequestBody List<Map<String, Object>> bodies,
+                        @RequestHeader(value = DEADLINE_HEADER, required = false) Long deadlineMs) throws Exception {
+        long start = System.currentTimeMillis();
+
+        // 批的截止时间是里面最晚的那条，过了就整批不做
+        long remaining = remainingMs(deadlineMs);
+        if (remaining <= 0) {
+            log.info("ORDER_BATCH skip size={} lateMs={} (deadline passed)", bodies.size(), -remaining);
+            return deadlineExceeded(0);
+        }
+
+        List<Map<String, Object>> replays = new ArrayList<>(bodies.size());
+        int fresh = 0;
+        for (Map<String, Object> body : bodies) {
+            Map<String, Object> stored = journal.lookup(String.valueOf(body.getOrDefault("reqId", OrderJournal.NO_REQ_ID)));
+            replays.add(stored == null ? null : replayed(stored));
+            if (stored == null) fresh++;
+        }
+        if (fresh == 0) {
+            log.info("ORDER_BATCH replay size={} costMs={}", bodies.size(), System.currentTimeMillis() - start);
+            return replays;
+        }
+
+        int sleepMs = latency.nextMs();
+        final boolean cut = sleepMs > remaining;
+        final int workMs = cut ? (int) remaining : sleepMs;
+        log.info("ORDER_BATCH start size={} sleepMs={} thread={}",
+                bodies.size(), sleepMs, Thread.currentThread().getName());
+
+        if (isAsync()) {
+            DeferredResult<Object> result = new DeferredResult<>(workMs + ASYNC_TIMEOUT_SLACK_MS);
+            timer.schedule(() -> {
+                long cost = System.currentTimeMillis() - start;
+                if (cut) {
+                    log.info("ORDER_BATCH abort size={} sleepMs={} costMs={} (deadline)", bodies.size(), sleepMs, cost);
+                    result.setResult(deadlineExceeded(workMs));
+                    return;
+                }
+                log.info("ORDER_BATCH done size={} sleepMs={} costMs={}", bodies.size(), sleepMs, cost);
+                buildBatchResp(bodies, replays, sleepMs).whenComplete((resp, e) -> {
+                    if (e != null) {
+                        result.setErrorResult(e);
+                    } else {
+                        result.setResult(resp);
+                    }
+                });
+            }, workMs);
+            return result;
+        }
+
+        Thread.sleep(workMs);
+
+        long cost = System.currentTimeMillis() - start;
+        if (cut) {
+            log.info("ORDER_BATCH abort size={} sleepMs={} costMs={} (deadline)", bodies.size(), sleepMs, cost);
+            return deadlineExceeded(workMs);
+        }
+        log.info("ORDER_BATCH done size={} sleepMs={} costMs={}", bodies.size(), sleepMs, cost);
+        return awaitJournal(buildBatchResp(bodies, replays, sleepMs), deadlineMs, workMs);
+    }
+
+    private boolean isAsync() {
+        return "async".equalsIgnoreCase(props.getMode());
+    }
+
+    /** 剩余毫秒数；没带截止时间或者 order.deadline.enabled=false 时不限 */
+    private long remainingMs(Long deadlineMs) {
+        if (deadlineMs == null || deadlineMs <= 0 || !props.getDeadline().isEnabled()) return Long.MAX_VALUE;
+        return deadlineMs - System.currentTimeMillis();
+    }
+
+    /** 等落盘：最多等到截止时间（且不超过 JOURNAL_WAIT_MAX_MS），因截止时间没等到的回 504 */
+    private Object awaitJournal(CompletableFuture<?> write, Long deadlineMs, long workedMs) throws Exception {
+        long waitMs = Math.max(1, Math.min(JOURNAL_WAIT_MAX_MS, remainingMs(deadlineMs)));
+        try {
+            return write.get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (remainingMs(deadlineMs) <= 0) {
+                log.info("ORDER_BIZ abort workedMs={} (deadline while waiting for journal)", workedMs);
+                return deadlineExceeded(workedMs);
+            }
+            throw new IllegalStateException("order journal commit not done within " + waitMs + "ms", e);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> deadlineExceeded(long workedMs) {
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("ok", false);
+        resp.put("reason", "deadline exceeded");
+        resp.put("workedMs", workedMs);
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(resp);
+    }
+
+    /** replays 里非 null 的是做过的，原样用；其他的新建结果并落盘，整批落完才完成 */
+    private CompletableFuture<List<Map<String, Object>>> buildBatchResp(List<Map<String, Object>> bodies,
+                                                                       List<Map<String, Object>> replays, int sleepMs) {
+        List<Map<String, Object>> out = new ArrayList<>(bodies.size());
+        List<CompletableFuture<Map<String, Object>>> writes = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            Map<String, Object> replay = replays.get(i);
+            if (replay != null) {
+                out.add(replay);
+                continue;
+            }
+            Map<String, Object> body = bodies.get(i);
+            Map<String, Object> resp = buildResp(body, sleepMs);
+            out.add(resp);
+            writes.add(persist(String.valueOf(body.getOrDefault("reqId", OrderJournal.NO_REQ_ID)), resp));
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).thenApply(v -> out);
+    }
+
+    /** 没开 order.journal 时直接完成；开了就等落盘，journalMs 是等的时间（不存进日志） */
+    private CompletableFuture<Map<String, Object>> persist(String reqId, Map<String, Object> resp) {
+        if (!journal.isEnabled()) return CompletableFuture.completedFuture(resp);
+        long t0 = System.currentTimeMillis();
+        return journal.append(reqId, resp).thenApply(v -> {
+            resp.put("journalMs", System.currentTimeMillis() - t0);
+            return resp;
+        });
+    }
+
+    private static Map<String, Object> replayed(Map<String, Object> stored) {
+        Map<String, Object> resp = new LinkedHashMap<>(stored);
+        resp.put("replayed", true);
+        return resp;
+    }
+
+    private Map<String, Object> buildResp(Map<String, Object> body, int sleepMs) {
         Map<String, Object> resp = new LinkedHashMap<>();
         resp.put("ok", true);
         resp.put("sleepMs", sleepMs);
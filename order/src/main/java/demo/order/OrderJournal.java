@@ -0,0 +1,294 @@
+package demo.order;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单日志（order.journal.enabled）：每个做完的订单追加一行 JSON 到一个 FileChannel，落盘之后才应答，
+ * 让 order 这个下游替身也付一次真实服务写库的 I/O 代价。
+ * - 写盘只在 order-journal 一个线程上做，调用方拿 CompletableFuture（sync 模式的 Tomcat 线程就地等，async 模式接着回调）
+ * - commit=group：一次把队列里攒的都写掉，整批只 force 一次（windowMs>0 时第一条进来后再多等这么久攒批）；
+ *   commit=each：一条一写一 force，就是“每个请求一次 fsync”；commit=none：只写不 force（交给 page cache）
+ * - reqId 幂等索引：reqId → 那一行在文件里的位置，重复的 reqId 直接读回存下的结果，不再干活也不再写；
+ *   没带 reqId 的（NA）照样落盘，但不进索引、不查（跟 push 的 SingleFlight 一样），否则后面没带 reqId 的都会重放第一条
+ * 启动时重放整个文件重建索引，末尾没写完的半行截掉。
+ * 行格式：{"reqId":"..","ts":epochMs,"resp":{..}}\n
+ */
+@Component
+public class OrderJournal {
+    private static final Logger log = LoggerFactory.getLogger(OrderJournal.class);
+
+    private static final long STATS_INTERVAL_MS = 2000;
+
+    // 请求体里没有 reqId 时的占位，不能当幂等键
+    static final String NO_REQ_ID = "NA";
+
+    private static final class Entry {
+        final long pos;
+        final int len;
+
+        Entry(long pos, int len) {
+            this.pos = pos;
+            this.len = len;
+        }
+    }
+
+    private static final class Pending {
+        final String reqId;
+        final byte[] line;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(String reqId, byte[] line) {
+            this.reqId = reqId;
+            this.line = line;
+        }
+    }
+
+    private final OrderProperties.JournalProps jp;
+    private final ObjectMapper mapper;
+    private final boolean enabled;
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private FileChannel channel;
+    private long writePos;
+    private Thread committer;
+    private volatile boolean running;
+
+    // 区间统计，只有 committer 线程读写
+    private long commits;
+    private long records;
+    private int maxBatch;
+    private long forceNanos;
+    private long forceMaxNanos;
+    private long lastStatsMs = System.currentTimeMillis();
+    // 重放次数由请求线程累加
+    private final AtomicLong replays = new AtomicLong();
+
+    public OrderJournal(OrderProperties props, ObjectMapper mapper) throws IOException {
+        this.jp = props.getJournal();
+        this.mapper = mapper;
+        this.enabled = jp.isEnabled();
+        if (!enabled) return;
+
+        Path file = Paths.get(jp.getFile());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+        running = true;
+        committer = new Thread(this::commitLoop, "order-journal");
+        committer.setDaemon(true);
+        committer.start();
+        log.info("ORDER_JOURNAL init file={} commit={} windowMs={} maxBatch={} indexed={} bytes={}",
+                file.toAbsolutePath(), jp.getCommit(), jp.getWindowMs(), jp.getMaxBatch(), index.size(), writePos);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 之前做过的 reqId 返回存下来的结果（读文件），没有返回 null */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> lookup(String reqId) throws IOException {
+        if (!enabled || NO_REQ_ID.equals(reqId)) return null;
+        Entry e = index.get(reqId);
+        if (e == null) return null;
+        ByteBuffer buf = ByteBuffer.allocate(e.len);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, e.pos + buf.position()) < 0) throw new IOException("journal truncated at " + e.pos);
+        }
+        Map<String, Object> line = mapper.readValue(buf.array(), Map.class);
+        replays.incrementAndGet();
+        return (Map<String, Object>) line.get("resp");
+    }
+
+    /** 追加一条，落盘（按 commit 策略）后完成；没开的话直接完成 */
+    public CompletableFuture<Void> append(String reqId, Map<String, Object> resp) {
+        if (!enabled) return CompletableFuture.completedFuture(null);
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("reqId", reqId);
+        line.put("ts", System.currentTimeMillis());
+        line.put("resp", resp);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            mapper.writeValue(out, line);
+            out.write('\n');
+            Pending p = new Pending(reqId, out.toByteArray());
+            queue.add(p);
+            return p.done;
+        } catch (IOException e) {
+            CompletableFuture<Void> f = new CompletableFuture<>();
+            f.completeExceptionally(e);
+            return f;
+        }
+    }
+
+    private void commitLoop() {
+        String commit = jp.getCommit();
+        boolean each = "each".equalsIgnoreCase(commit);
+        boolean force = !"none".equalsIgnoreCase(commit);
+        int max = each ? 1 : Math.max(1, jp.getMaxBatch());
+        List<Pending> batch = new ArrayList<>(max);
+        while (running) {
+            try {
+                Pending first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    if (!each && jp.getWindowMs() > 0) {
+                        // 攒批窗口：第一条进来后再等 windowMs
+                        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(jp.getWindowMs());
+                        while (batch.size() < max) {
+                            long left = until - System.nanoTime();
+                            if (left <= 0) break;
+                            Pending p = queue.poll(left, TimeUnit.NANOSECONDS);
+                            if (p == null) break;
+                            batch.add(p);
+                        }
+                    }
+                    // 上一次 force 期间进来的都算这一批
+                    queue.drainTo(batch, max - batch.size());
+                    write(batch, force);
+                    batch.clear();
+                }
+                logStats();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void write(List<Pending> batch, boolean force) {
+        try {
+            ByteBuffer[] bufs = new ByteBuffer[batch.size()];
+            long[] positions = new long[batch.size()];
+            long pos = writePos;
+            for (int i = 0; i < batch.size(); i++) {
+                bufs[i] = ByteBuffer.wrap(batch.get(i).line);
+                positions[i] = pos;
+                pos += batch.get(i).line.length;
+            }
+            channel.position(writePos);
+            while (bufs[bufs.length - 1].hasRemaining()) {
+                channel.write(bufs);
+            }
+            if (force) {
+                long t0 = System.nanoTime();
+                channel.force(false);
+                long took = System.nanoTime() - t0;
+                forceNanos += took;
+                forceMaxNanos = Math.max(forceMaxNanos, took);
+            }
+            writePos = pos;
+            commits++;
+            records += batch.size();
+            maxBatch = Math.max(maxBatch, batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Pending p = batch.get(i);
+                // 同一个 reqId 并发做了两次的，索引留先落盘的那次
+                if (!NO_REQ_ID.equals(p.reqId)) index.putIfAbsent(p.reqId, new Entry(positions[i], p.line.length - 1));
+                p.done.complete(null);
+            }
+        } catch (IOException e) {
+            log.error("ORDER_JOURNAL write failed records={} err={}", batch.size(), e.toString(), e);
+            for (Pending p : batch) {
+                p.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void logStats() {
+        long now = System.currentTimeMillis();
+        if (now - lastStatsMs < STATS_INTERVAL_MS) return;
+        lastStatsMs = now;
+        long r = replays.getAndSet(0);
+        if (commits == 0 && r == 0) return;
+        log.info("ORDER_JOURNAL commits={} records={} avgBatch={} maxBatch={} forceAvgMs={} forceMaxMs={} replays={} indexed={} queued={}",
+                commits, records, commits == 0 ? 0 : records / commits, maxBatch,
+                commits == 0 ? 0 : String.format("%.2f", forceNanos / 1e6 / commits),
+                String.format("%.2f", forceMaxNanos / 1e6), r, index.size(), queue.size());
+        commits = 0;
+        records = 0;
+        maxBatch = 0;
+        forceNanos = 0;
+        forceMaxNanos = 0;
+    }
+
+    // 逐行读一遍建索引；最后一行不完整（崩溃时只写了一半）就从那里截断
+    @SuppressWarnings("unchecked")
+    private void recover() throws IOException {
+        long size = channel.size();
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        long pos = 0;
+        long lineStart = 0;
+        long good = 0;
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                byte b = buf.get(i);
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                byte[] bytes = line.toByteArray();
+                line.reset();
+                try {
+                    Map<String, Object> m = mapper.readValue(bytes, Map.class);
+                    String reqId = String.valueOf(m.get("reqId"));
+                    if (!NO_REQ_ID.equals(reqId)) index.putIfAbsent(reqId, new Entry(lineStart, bytes.length));
+                } catch (IOException e) {
+                    log.warn("ORDER_JOURNAL skip unreadable line at {} ({})", lineStart, e.toString());
+                }
+                lineStart = pos + i + 1;
+                good = lineStart;
+            }
+            pos += n;
+        }
+        if (good < size) {
+            log.warn("ORDER_JOURNAL truncate partial tail {} -> {}", size, good);
+            channel.truncate(good);
+        }
+        writePos = good;
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (!enabled) return;
+        // 不 interrupt：FileChannel 上的线程被中断会把 channel 关掉；poll 200ms 自己会退出
+        running = false;
+        try {
+            committer.join(2000);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        // 还在队列里的不再写，让还在等的请求线程失败返回而不是一直挂着
+        IOException closed = new IOException("order journal shut down");
+        for (Pending p; (p = queue.poll()) != null; ) {
+            p.done.completeExceptionally(closed);
+        }
+        channel.force(false);
+        channel.close();
+    }
+}
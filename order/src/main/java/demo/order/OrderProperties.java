@@ -4,15 +4,158 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 @Component
-@ConfigurationProperties(prefix = "order.sleep")
+@ConfigurationProperties(prefix = "order")
 public class OrderProperties {
 
-    private int minMs = 1000;
-    private int maxMs = 3000;
+    // sync: Thread.sleep 占住 Tomcat 线程；async: DeferredResult + 时间轮，不占线程
+    private String mode = "sync";
 
-    public int getMinMs() { return minMs; }
-    public void setMinMs(int minMs) { this.minMs = minMs; }
+    private Sleep sleep = new Sleep();
+    private AsyncProps async = new AsyncProps();
+    private Latency latency = new Latency();
+    private DeadlineProps deadline = new DeadlineProps();
+    private JournalProps journal = new JournalProps();
 
-    public int getMaxMs() { return maxMs; }
-    public void setMaxMs(int maxMs) { this.maxMs = maxMs; }
+    public String getMode() { return mode; }
+    public void setMode(String mode) { this.mode = mode; }
+
+    public Sleep getSleep() { return sleep; }
+    public void setSleep(Sleep sleep) { this.sleep = sleep; }
+
+    public AsyncProps getAsync() { return async; }
+    public void setAsync(AsyncProps async) { this.async = async; }
+
+    public Latency getLatency() { return latency; }
+    public void setLatency(Latency latency) { this.latency = latency; }
+
+    public DeadlineProps getDeadline() { return deadline; }
+    public void setDeadline(DeadlineProps deadline) { this.deadline = deadline; }
+
+    public JournalProps getJournal() { return journal; }
+    public void setJournal(JournalProps journal) { this.journal = journal; }
+
+    public static class Sleep {
+        private int minMs = 1000;
+        private int maxMs = 3000;
+
+        public int getMinMs() { return minMs; }
+        public void setMinMs(int minMs) { this.minMs = minMs; }
+
+        public int getMaxMs() { return maxMs; }
+        public void setMaxMs(int maxMs) { this.maxMs = maxMs; }
+    }
+
+    public static class DeadlineProps {
+        // 是否认 X-Deadline：过期的不做，做到截止时间就停
+        private boolean enabled = true;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    }
+
+    public static class JournalProps {
+        // 每个订单落盘后再应答；关掉就是原来的纯 sleep
+        private boolean enabled = false;
+        private String file = "order-journal.log";
+        // group: 攒批一次 force | each: 每条一次 force | none: 不 force
+        private String commit = "group";
+        // group 模式第一条进来后再等多久攒批，0 表示不等（只合并上一次 force 期间排队的）
+        private long windowMs = 0;
+        private int maxBatch = 1000;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public String getFile() { return file; }
+        public void setFile(String file) { this.file = file; }
+
+        public String getCommit() { return commit; }
+        public void setCommit(String commit) { this.commit = commit; }
+
+        public long getWindowMs() { return windowMs; }
+        public void setWindowMs(long windowMs) { this.windowMs = windowMs; }
+
+        public int getMaxBatch() { return maxBatch; }
+        public void setMaxBatch(int maxBatch) { this.maxBatch = maxBatch; }
+    }
+
+    public static class AsyncProps {
+        // 时间轮精度，越小越准，空转开销越大
+        private int tickMs = 10;
+        private int wheelSize = 512;
+
+        public int getTickMs() { return tickMs; }
+        public void setTickMs(int tickMs) { this.tickMs = tickMs; }
+
+        public int getWheelSize() { return wheelSize; }
+        public void setWheelSize(int wheelSize) { this.wheelSize = wheelSize; }
+    }
+
+    public static class Latency {
+        // uniform | lognormal | bimodal | percentiles | histogram
+        private String model = "uniform";
+        private LogNormalProps lognormal = new LogNormalProps();
+        private BimodalProps bimodal = new BimodalProps();
+        // "50:2500,90:4000,99:5500,100:8000"
+        private String percentiles;
+        private HistogramProps histogram = new HistogramProps();
+
+        public String getModel() { return model; }
+        public void setModel(String model) { this.model = model; }
+
+        public LogNormalProps getLognormal() { return lognormal; }
+        public void setLognormal(LogNormalProps lognormal) { this.lognormal = lognormal; }
+
+        public BimodalProps getBimodal() { return bimodal; }
+        public void setBimodal(BimodalProps bimodal) { this.bimodal = bimodal; }
+
+        public String getPercentiles() { return percentiles; }
+        public void setPercentiles(String percentiles) { this.percentiles = percentiles; }
+
+        public HistogramProps getHistogram() { return histogram; }
+        public void setHistogram(HistogramProps histogram) { this.histogram = histogram; }
+    }
+
+    public static class LogNormalProps {
+        private int medianMs = 3000;
+        private double sigma = 0.5;
+        private int maxMs = 30000;
+
+        public int getMedianMs() { return medianMs; }
+        public void setMedianMs(int medianMs) { this.medianMs = medianMs; }
+
+        public double getSigma() { return sigma; }
+        public void setSigma(double sigma) { this.sigma = sigma; }
+
+        public int getMaxMs() { return maxMs; }
+        public void setMaxMs(int maxMs) { this.maxMs = maxMs; }
+    }
+
+    public static class BimodalProps {
+        // 非 stall 的请求仍按 sleep.minMs/maxMs 均匀分布
+        private double stallProbability = 0.02;
+        private int stallMinMs = 8000;
+        private int stallMaxMs = 15000;
+
+        public double getStallProbability() { return stallProbability; }
+        public void setStallProbability(double stallProbability) { this.stallProbability = stallProbability; }
+
+        public int getStallMinMs() { return stallMinMs; }
+        public void setStallMinMs(int stallMinMs) { this.stallMinMs = stallMinMs; }
+
+        public int getStallMaxMs() { return stallMaxMs; }
+        public void setStallMaxMs(int stallMaxMs) { this.stallMaxMs = stallMaxMs; }
+    }
+
+    public static class HistogramProps {
+        private String file;
+        // 文件里数值的单位：ms | us | ns
+        private String unit = "us";
+
+        public String getFile() { return file; }
+        public void setFile(String file) { this.file = file; }
+
+        public String getUnit() { return unit; }
+        public void setUnit(String unit) { this.unit = unit; }
+    }
 }
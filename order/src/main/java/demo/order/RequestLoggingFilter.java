@@ -28,9 +28,23 @@ public class RequestLoggingFilter implements Filter {
         try {
             chain.doFilter(request, response);
         } finally {
-            long cost = System.currentTimeMillis() - start;
-            log.info("ORDER_HTTP method={} uri={} status={} costMs={} remote={}",
-                    method, uri, resp.getStatus(), cost, remote);
+            if (req.isAsyncStarted()) {
+                // async 模式：servlet 线程已经还回去了，等真正完成时再打
+                req.getAsyncContext().addListener(new AsyncListener() {
+                    @Override public void onComplete(AsyncEvent event) { logDone(method, uri, resp, start, remote); }
+                    @Override public void onTimeout(AsyncEvent event) {}
+                    @Override public void onError(AsyncEvent event) {}
+                    @Override public void onStartAsync(AsyncEvent event) {}
+                });
+            } else {
+                logDone(method, uri, resp, start, remote);
+            }
         }
     }
+
+    private void logDone(String method, String uri, HttpServletResponse resp, long start, String remote) {
+        long cost = System.currentTimeMillis() - start;
+        log.info("ORDER_HTTP method={} uri={} status={} costMs={} remote={}",
+                method, uri, resp.getStatus(), cost, remote);
+    }
 }
@@ -0,0 +1,117 @@
+package demo.order;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 简单的哈希时间轮：一个线程按 tickMs 推进，到期任务在该线程上直接执行（任务要足够轻）。
+ * 跟 Netty HashedWheelTimer 同一个思路：提交只是入一个无锁队列，O(1)，
+ * 几千个同时在等的定时任务也只占一个线程。
+ */
+public class TimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<Timeout>[] buckets;
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread worker;
+    private final long startNanos;
+
+    private volatile boolean running = true;
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(String name, long tickMs, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        int size = Integer.highestOneBit(Math.max(16, wheelSize) - 1) << 1; // 向上取 2 的幂
+        this.mask = size - 1;
+        this.buckets = new List[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public void schedule(Runnable task, long delayMs) {
+        pending.incrementAndGet();
+        incoming.add(new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs))));
+    }
+
+    /** 还没到期的任务数 */
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) return;
+                }
+            }
+            transferIncoming();
+            expire(buckets[(int) (tick & mask)], System.nanoTime());
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        Timeout t;
+        while ((t = incoming.poll()) != null) {
+            long ticks = Math.max(tick, (t.deadlineNanos - startNanos) / tickNanos);
+            t.rounds = (ticks - tick) / buckets.length;
+            buckets[(int) (ticks & mask)].add(t);
+        }
+    }
+
+    private void expire(List<Timeout> bucket, long now) {
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout t = it.next();
+            if (t.rounds > 0) {
+                t.rounds--;
+                continue;
+            }
+            it.remove();
+            pending.decrementAndGet();
+            try {
+                t.task.run();
+            } catch (Throwable e) {
+                log.error("TIMER task failed", e);
+            }
+        }
+    }
+
+    private static final class Timeout {
+        final Runnable task;
+        final long deadlineNanos;
+        long rounds;
+
+        Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package demo.push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * async-ack 模式的本地持久队列：只追加的分段日志，每段一个固定大小的文件，整段 mmap。
+ * 记录：len(int) crc32(int) seq(long) acceptedAtMs(long) payload(len 字节)，seq 全局递增
+ * - 写（加锁，单写者）：先写 len 以外的部分，最后写 len 再发布 writeEnd（volatile），读的一方只读 writeEnd 之前的
+ * - 读（单个 drain 线程）：按 seq 顺序往后走，段读完且已封口就换下一段
+ * - 段写满就封口换新段；每次启动都从新段开始写，不往旧段后面接（掉电时旧段尾部可能只有半条，crc 对不上就当结尾）
+ * - 刷盘不在 append 里做（append 跑在受理请求的线程上）：封口的旧段和当前段一样记上没刷，等 flush(true) 一起刷
+ * - 进度：checkpoint 文件里记 committed（它之前的 seq 都处理完了），启动时从它开始重放；
+ *   整段都在 committed 之前的段文件直接删掉
+ * 进程崩溃不丢（写进 mmap 就在 page cache 里了），掉电要看 force 的频率。重放是至少一次。
+ */
+class AckLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(AckLog.class);
+
+    static final int HEADER = 24;
+
+    private static final String SEGMENT_PREFIX = "ack-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "ack.checkpoint";
+
+    static final class Record {
+        final long seq;
+        final long acceptedAtMs;
+        final byte[] payload;
+
+        Record(long seq, long acceptedAtMs, byte[] payload) {
+            this.seq = seq;
+            this.acceptedAtMs = acceptedAtMs;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Segment {
+        final long firstSeq;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buf;
+        // 已发布的写入位置 / 段内最后一条的 seq（空段为 firstSeq - 1）
+        volatile int writeEnd;
+        volatile long lastSeq;
+        volatile boolean sealed;
+        // 封口时还有没刷盘的写入，等 flush(true)
+        volatile boolean unforced;
+
+        Segment(long firstSeq, Path path, FileChannel channel, MappedByteBuffer buf) {
+            this.firstSeq = firstSeq;
+            this.path = path;
+            this.channel = channel;
+            this.buf = buf;
+            this.lastSeq = firstSeq - 1;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean forceEachAppend;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final FileChannel checkpointChannel;
+    private final MappedByteBuffer checkpoint;
+
+    // 以下写侧字段只在 synchronized(this) 里改
+    private Segment active;
+    private long nextSeq;
+    private final CRC32 crc = new CRC32();
+    private volatile long appendedSeq;
+    private volatile boolean dirty;
+
+    private volatile long committed;
+
+    // 读侧，只有 drain 线程用
+    private Segment readSeg;
+    private int readPos;
+
+    private AckLog(Path dir, int segmentBytes, boolean forceEachAppend) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.forceEachAppend = forceEachAppend;
+        Files.createDirectories(dir);
+        this.checkpointChannel = new RandomAccessFile(dir.resolve(CHECKPOINT).toFile(), "rw").getChannel();
+        this.checkpoint = checkpointChannel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        this.committed = checkpoint.getLong(0);
+    }
+
+    /** 打开目录（没有就建），扫描已有的段找出写到哪了，读游标停在 checkpoint */
+    static AckLog open(Path dir, int segmentBytes, boolean forceEachAppend) throws IOException {
+        AckLog l = new AckLog(dir, segmentBytes, forceEachAppend);
+        l.recover();
+        return l;
+    }
+
+    /** 目录里有没有段文件（上次没消费完的）；启动时用来决定要不要马上打开 */
+    static boolean hasSegments(Path dir) {
+        if (!Files.isDirectory(dir)) return false;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            return ds.iterator().hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path p : ds) files.add(p);
+        }
+        long maxSeq = committed - 1;
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            long firstSeq = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            FileChannel ch = new RandomAccessFile(p.toFile(), "rw").getChannel();
+            Segment s = new Segment(firstSeq, p, ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size()));
+            int pos = 0;
+            while (true) {
+                Record r = readAt(s.buf, pos);
+                if (r == null) break;
+                s.lastSeq = r.seq;
+                pos += HEADER + r.payload.length;
+            }
+            s.writeEnd = pos;
+            s.sealed = true;
+            if (pos == 0 || s.lastSeq < committed) {
+                // 空段或者已经全部处理完
+                ch.close();
+                Files.deleteIfExists(p);
+                continue;
+            }
+            segments.put(firstSeq, s);
+            maxSeq = Math.max(maxSeq, s.lastSeq);
+        }
+        nextSeq = maxSeq + 1;
+        appendedSeq = nextSeq;
+        log.info("ACK_LOG open dir={} segments={} committed={} nextSeq={} pending={}",
+                dir.toAbsolutePath(), segments.size(), committed, nextSeq, pending());
+    }
+
+    /** 追加一条，返回 seq；forceEachAppend 时写完就刷盘 */
+    synchronized long append(byte[] payload, long acceptedAtMs) throws IOException {
+        if (payload.length == 0) throw new IllegalArgumentException("empty record");
+        int need = HEADER + payload.length;
+        if (need > segmentBytes) {
+            throw new IllegalArgumentException("record of " + payload.length + " bytes exceeds segmentBytes " + segmentBytes);
+        }
+        if (active == null || segmentBytes - active.writeEnd < need) {
+            roll();
+        }
+
+        long seq = nextSeq;
+        int pos = active.writeEnd;
+        MappedByteBuffer b = active.buf;
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        b.putInt(pos + 4, (int) crc.getValue());
+        b.putLong(pos + 8, seq);
+        b.putLong(pos + 16, acceptedAtMs);
+        ByteBuffer d = b.duplicate();
+        d.position(pos + HEADER);
+        d.put(payload);
+        b.putInt(pos, payload.length);
+
+        active.lastSeq = seq;
+        active.writeEnd = pos + need;
+        nextSeq = seq + 1;
+        appendedSeq = nextSeq;
+        if (forceEachAppend) {
+            b.force();
+        } else {
+            dirty = true;
+        }
+        return seq;
+    }
+
+    // 新段先登记再封口旧段：读的一方看到旧段封口时，下一段一定已经在 segments 里
+    private void roll() throws IOException {
+        Path p = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSeq, SEGMENT_SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(p.toFile(), "rw");
+        raf.setLength(segmentBytes);
+        FileChannel ch = raf.getChannel();
+        Segment s = new Segment(nextSeq, p, ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        segments.put(s.firstSeq, s);
+        Segment old = active;
+        active = s;
+        if (old != null) {
+            // 不在这里 force：append 在受理请求的线程上，整段 msync 会卡住它；交给下一次 flush(true)
+            old.unforced = dirty;
+            dirty = false;
+            old.sealed = true;
+        }
+    }
+
+    /** 按 seq 顺序取下一条，没有新的返回 null；committed 之前的（上次已处理完）跳过 */
+    Record next() {
+        while (true) {
+            if (readSeg == null) {
+                Map.Entry<Long, Segment> first = segments.firstEntry();
+                if (first == null) return null;
+                readSeg = first.getValue();
+                readPos = 0;
+            }
+            if (readPos < readSeg.writeEnd) {
+                Record r = readAt(readSeg.buf, readPos);
+                if (r == null) {
+                    // 发布过的位置之前不会读不出来，除非文件被外部改过；跳到段尾
+                    log.error("ACK_LOG corrupt record segment={} pos={}", readSeg.path.getFileName(), readPos);
+                    readPos = readSeg.writeEnd;
+                    continue;
+                }
+                readPos += HEADER + r.payload.length;
+                if (r.seq < committed) continue;
+                return r;
+            }
+            if (!readSeg.sealed) return null;
+            if (readPos < readSeg.writeEnd) continue;
+            Map.Entry<Long, Segment> next = segments.higherEntry(readSeg.firstSeq);
+            if (next == null) return null;
+            readSeg = next.getValue();
+            readPos = 0;
+        }
+    }
+
+    /** 从 committed 开始把还没处理的记录过一遍（启动时恢复状态用），不动读游标 */
+    void forEachPending(Consumer<Record> consumer) {
+        for (Segment s : segments.values()) {
+            int pos = 0;
+            int end = s.writeEnd;
+            while (pos < end) {
+                Record r = readAt(s.buf, pos);
+                if (r == null) break;
+                pos += HEADER + r.payload.length;
+                if (r.seq >= committed) consumer.accept(r);
+            }
+        }
+    }
+
+    private static Record readAt(ByteBuffer buf, int pos) {
+        if (pos + HEADER > buf.capacity()) return null;
+        int len = buf.getInt(pos);
+        if (len <= 0 || pos + HEADER + len > buf.capacity()) return null;
+        byte[] payload = new byte[len];
+        ByteBuffer d = buf.duplicate();
+        d.position(pos + HEADER);
+        d.get(payload);
+        CRC32 c = new CRC32();
+        c.update(payload, 0, len);
+        if ((int) c.getValue() != buf.getInt(pos + 4)) return null;
+        return new Record(buf.getLong(pos + 8), buf.getLong(pos + 16), payload);
+    }
+
+    /** 处理进度：seq < committed 的都处理完了（调用方保证单调） */
+    void commit(long committed) {
+        this.committed = committed;
+    }
+
+    long committed() {
+        return committed;
+    }
+
+    /** 已追加、还没处理完的条数 */
+    long pending() {
+        return appendedSeq - committed;
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 定期调用：force=true 时把当前段和封口时还没刷的段刷盘；checkpoint 有变化就写并刷盘；
+     * 删掉已封口、整段都处理完的段文件（映射等 GC 回收，Linux 上删除已映射的文件没问题）。
+     */
+    void flush(boolean force) throws IOException {
+        synchronized (checkpoint) {
+            flushLocked(force);
+        }
+    }
+
+    private void flushLocked(boolean force) throws IOException {
+        if (force) {
+            for (Segment s : segments.values()) {
+                if (s.unforced) {
+                    s.unforced = false;
+                    s.buf.force();
+                }
+            }
+            Segment a = active;
+            if (dirty && a != null) {
+                dirty = false;
+                a.buf.force();
+            }
+        }
+        long c = committed;
+        if (checkpoint.getLong(0) != c) {
+            checkpoint.putLong(0, c);
+            checkpoint.force();
+        }
+        for (Segment s : segments.values()) {
+            if (!s.sealed || s.lastSeq >= c) break;
+            segments.remove(s.firstSeq);
+            s.channel.close();
+            Files.deleteIfExists(s.path);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush(true);
+        for (Segment s : segments.values()) {
+            s.buf.force();
+            s.channel.close();
+        }
+        checkpointChannel.close();
+    }
+}
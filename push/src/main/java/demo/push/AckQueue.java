@@ -0,0 +1,370 @@
+package demo.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * push.mode=async-ack：/push 只把请求体追加到本地的 AckLog（mmap 分段日志）就回 202，不等 order。
+ * - 后台 push-ack-drain 线程按 seq 顺序从日志取出来，最多 workers 个并发用 WebClient 发给 order（过 limiter），
+ *   失败（4xx 除外）按指数退避重试，到 maxAttempts 次还不行记 FAILED，打 ACK_DRAIN dead 日志
+ * - 处理进度按 seq 连续推进（乱序完成的先记着），定期写进 checkpoint；push 重启后从 checkpoint 重放，至少一次
+ * - 结果放在内存里（最多 statusCapacity 条），GET /push/status/{reqId} 查；重启后未处理完的从日志里恢复成 ACCEPTED，
+ *   已经 DONE 的结果不持久化
+ * - 同一个 reqId 还没失败时重复提交，直接回原来那条的状态，不再写日志
+ * 调用方的 X-Deadline 只约束受理这一步，投递给 order 时不带。
+ */
+@Component
+public class AckQueue {
+    private static final Logger log = LoggerFactory.getLogger(AckQueue.class);
+
+    static final String MODE = "async-ack";
+
+    static final String ACCEPTED = "ACCEPTED";
+    static final String SENDING = "SENDING";
+    static final String DONE = "DONE";
+    static final String FAILED = "FAILED";
+
+    private static final DefaultDataBufferFactory BUFFERS = new DefaultDataBufferFactory();
+
+    /** 还没处理完的条数到了 maxPending，不再受理 */
+    public static class QueueFullException extends RuntimeException {
+        QueueFullException(long pending) {
+            super("ack queue full, pending=" + pending, null, false, false);
+        }
+    }
+
+    /** 一条受理记录的状态，drain 线程和 reactor 回调写，状态查询读 */
+    static final class Status {
+        final String reqId;
+        final long seq;
+        final long acceptedAtMs;
+        volatile String state = ACCEPTED;
+        volatile int attempts;
+        volatile long doneAtMs;
+        volatile Map<String, Object> orderResp;
+        volatile String error;
+
+        Status(String reqId, long seq, long acceptedAtMs) {
+            this.reqId = reqId;
+            this.seq = seq;
+            this.acceptedAtMs = acceptedAtMs;
+        }
+    }
+
+    /** accept 的结果：duplicate=true 时 status 是之前那条 */
+    static final class Accepted {
+        final Status status;
+        final boolean duplicate;
+
+        Accepted(Status status, boolean duplicate) {
+            this.status = status;
+            this.duplicate = duplicate;
+        }
+    }
+
+    private final PushProperties props;
+    private final WebClient webClient;
+    private final OrderBalancer orderBalancer;
+    private final OrderLimiter orderLimiter;
+    private final InflightGauges inflight;
+    private final ObjectMapper mapper;
+
+    private volatile AckLog ackLog;
+    private Thread drainer;
+    private volatile boolean running;
+    private Semaphore permits;
+    private long lastForceMs;
+
+    private final Map<String, Status> statuses;
+
+    // 乱序完成的 seq 先放这里，watermark 连续推进（synchronized(completed)）
+    private final TreeSet<Long> completed = new TreeSet<>();
+    private long watermark;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public AckQueue(PushProperties props, WebClient webClient, OrderLimiter orderLimiter, InflightGauges inflight,
+                    ObjectMapper mapper, PushMetrics metrics, OrderBalancer orderBalancer) {
+        this.props = props;
+        this.webClient = webClient;
+        this.orderBalancer = orderBalancer;
+        this.orderLimiter = orderLimiter;
+        this.inflight = inflight;
+        this.mapper = mapper;
+
+        final int capacity = Math.max(1, props.getAck().getStatusCapacity());
+        this.statuses = Collections.synchronizedMap(new LinkedHashMap<String, Status>(1024, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Status> eldest) {
+                return size() > capacity;
+            }
+        });
+
+        metrics.gauge("push_ack_pending", "async-ack records accepted and not yet delivered (or dead-lettered)",
+                () -> Collections.singletonMap("", ackLog == null ? 0L : ackLog.pending()));
+        metrics.gauge("push_ack_segments", "async-ack segment files on disk",
+                () -> Collections.singletonMap("", ackLog == null ? 0 : ackLog.segmentCount()));
+        metrics.gauge("push_ack_total", "async-ack events since start", () -> {
+            Map<String, Long> out = new LinkedHashMap<>();
+            out.put("event=\"accepted\"", accepted.get());
+            out.put("event=\"duplicate\"", duplicates.get());
+            out.put("event=\"rejected\"", rejected.get());
+            out.put("event=\"attempt\"", attempts.get());
+            out.put("event=\"retry\"", retries.get());
+            out.put("event=\"done\"", done.get());
+            out.put("event=\"failed\"", failed.get());
+            return out;
+        });
+    }
+
+    // 当前是 async-ack 模式，或者上次还有没投递完的，启动时就打开日志开始投递
+    @PostConstruct
+    public void start() throws IOException {
+        if (MODE.equalsIgnoreCase(props.getMode()) || AckLog.hasSegments(dir())) {
+            open();
+        }
+    }
+
+    private Path dir() {
+        return Paths.get(props.getAck().getDir());
+    }
+
+    private AckLog open() throws IOException {
+        AckLog l = ackLog;
+        if (l != null) return l;
+        synchronized (this) {
+            if (ackLog != null) return ackLog;
+            PushProperties.AckProps ap = props.getAck();
+            l = AckLog.open(dir(), ap.getSegmentBytes(), ap.getForceIntervalMs() <= 0);
+            watermark = l.committed();
+            l.forEachPending(r -> {
+                String reqId = reqIdOf(r.payload);
+                statuses.put(reqId, new Status(reqId, r.seq, r.acceptedAtMs));
+            });
+            permits = new Semaphore(Math.max(1, ap.getWorkers()));
+            lastForceMs = System.currentTimeMillis();
+            ackLog = l;
+            running = true;
+            drainer = new Thread(this::drainLoop, "push-ack-drain");
+            drainer.setDaemon(true);
+            drainer.start();
+            log.info("ACK_QUEUE init dir={} segmentBytes={} workers={} maxPending={} maxAttempts={} forceIntervalMs={}",
+                    dir().toAbsolutePath(), ap.getSegmentBytes(), ap.getWorkers(), ap.getMaxPending(),
+                    ap.getMaxAttempts(), ap.getForceIntervalMs());
+            return l;
+        }
+    }
+
+    /**
+     * 受理一条：写进日志就返回（在调用线程上，通常是 reactor-http；只是一次内存拷贝，不刷盘，
+     * 除非 forceIntervalMs<=0）。同一个 reqId 还在处理或已成功的，返回已有的那条。
+     */
+    public Accepted accept(String reqId, Map<String, Object> body) throws IOException {
+        AckLog l = open();
+        byte[] payload = mapper.writeValueAsBytes(body);
+        synchronized (this) {
+            Status existing = statuses.get(reqId);
+            // 没带 reqId 的（NA）不去重
+            if (existing != null && !FAILED.equals(existing.state) && !"NA".equals(reqId)) {
+                duplicates.incrementAndGet();
+                return new Accepted(existing, true);
+            }
+            long pending = l.pending();
+            if (pending >= props.getAck().getMaxPending()) {
+                rejected.incrementAndGet();
+                throw new QueueFullException(pending);
+            }
+            long now = System.currentTimeMillis();
+            Status s = new Status(reqId, l.append(payload, now), now);
+            statuses.put(reqId, s);
+            accepted.incrementAndGet();
+            LockSupport.unpark(drainer);
+            return new Accepted(s, false);
+        }
+    }
+
+    public Status status(String reqId) {
+        return statuses.get(reqId);
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                permits.acquire();
+                AckLog.Record r = ackLog.next();
+                if (r == null) {
+                    permits.release();
+                    // 新的一条写进来会 unpark；兜底 50ms 再看一次
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                    continue;
+                }
+                dispatch(r);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("ACK_DRAIN loop error {}", e.toString(), e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(AckLog.Record r) {
+        final Map<String, Object> body;
+        try {
+            body = mapper.readValue(r.payload, Map.class);
+        } catch (IOException e) {
+            // 受理时就是从 Map 序列化来的，不应该发生
+            log.error("ACK_DRAIN dead seq={} unreadable payload ({})", r.seq, e.toString());
+            failed.incrementAndGet();
+            finish(r.seq);
+            return;
+        }
+        String reqId = String.valueOf(body.getOrDefault("reqId", "NA"));
+        Status s = statuses.get(reqId);
+        if (s == null || s.seq != r.seq) {
+            // 状态已经被挤出去，或者同一个 reqId 失败后重新受理过；只记这一次投递自己的
+            s = new Status(reqId, r.seq, r.acceptedAtMs);
+        }
+        final Status st = s;
+        st.state = SENDING;
+
+        send(body, 1, st)
+                .doFinally(sig -> finish(r.seq))
+                .subscribe(resp -> {
+                    st.orderResp = resp;
+                    st.doneAtMs = System.currentTimeMillis();
+                    st.state = DONE;
+                    done.incrementAndGet();
+                }, e -> {
+                    st.error = e.toString();
+                    st.doneAtMs = System.currentTimeMillis();
+                    st.state = FAILED;
+                    failed.incrementAndGet();
+                    log.warn("ACK_DRAIN dead reqId={} seq={} attempts={} err={}", reqId, r.seq, st.attempts, e.toString());
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Mono<Map<String, Object>> send(Map<String, Object> body, int attempt, Status st) {
+        PushProperties.AckProps ap = props.getAck();
+        // 每次重试都重新选实例
+        Mono<Map<String, Object>> call = orderLimiter.wrap(orderBalancer.call(baseUrl -> webClient.post()
+                        .uri(baseUrl + "/order")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(body)
+                        .retrieve()
+                        .bodyToMono(Map.class)
+                        .map(m -> (Map<String, Object>) m)
+                        .timeout(Duration.ofSeconds(props.getOrderTimeoutSeconds()))))
+                .doOnSubscribe(x -> {
+                    st.attempts = attempt;
+                    attempts.incrementAndGet();
+                    inflight.inc(MODE);
+                })
+                .doFinally(sig -> inflight.dec(MODE));
+        return call.onErrorResume(e -> {
+            if (e instanceof OrderCircuitBreaker.OpenException && running) {
+                // 熔断打开时不算次数，隔一个 waitDurationMs 再试；worker 一直占着，投递自然停住，不会把条目耗成 FAILED
+                return Mono.delay(Duration.ofMillis(Math.max(1, props.getBreaker().getWaitDurationMs())))
+                        .then(send(body, attempt, st));
+            }
+            if (attempt >= ap.getMaxAttempts() || !retryable(e) || !running) return Mono.error(e);
+            retries.incrementAndGet();
+            long backoff = Math.min(ap.getMaxBackoffMs(), ap.getRetryBackoffMs() << Math.min(20, attempt - 1));
+            return Mono.delay(Duration.ofMillis(Math.max(1, backoff))).then(send(body, attempt + 1, st));
+        });
+    }
+
+    // order 明确拒绝（4xx）的重试也没用
+    private static boolean retryable(Throwable e) {
+        return !(e instanceof WebClientResponseException
+                && ((WebClientResponseException) e).getStatusCode().is4xxClientError());
+    }
+
+    private void finish(long seq) {
+        synchronized (completed) {
+            completed.add(seq);
+            while (completed.remove(watermark)) {
+                watermark++;
+            }
+            ackLog.commit(watermark);
+        }
+        permits.release();
+    }
+
+    private String reqIdOf(byte[] payload) {
+        try {
+            return PassthroughHandler.readReqId(BUFFERS.wrap(payload));
+        } catch (IOException e) {
+            return "NA";
+        }
+    }
+
+    // checkpoint 和删段每 50ms 一次；数据段按 forceIntervalMs 刷盘
+    @Scheduled(fixedDelay = 50)
+    public void flush() {
+        AckLog l = ackLog;
+        if (l == null) return;
+        long now = System.currentTimeMillis();
+        long interval = props.getAck().getForceIntervalMs();
+        boolean force = interval > 0 && now - lastForceMs >= interval;
+        if (force) lastForceMs = now;
+        try {
+            l.flush(force);
+        } catch (IOException e) {
+            log.error("ACK_LOG flush failed {}", e.toString(), e);
+        }
+    }
+
+    public boolean isOpen() {
+        return ackLog != null;
+    }
+
+    /** [pending, segments, accepted, duplicates, rejected, attempts, retries, done, failed, committed]，计数是累计值 */
+    public long[] stats() {
+        AckLog l = ackLog;
+        return new long[]{l == null ? 0 : l.pending(), l == null ? 0 : l.segmentCount(),
+                accepted.get(), duplicates.get(), rejected.get(), attempts.get(), retries.get(),
+                done.get(), failed.get(), l == null ? 0 : l.committed()};
+    }
+
+    // 在途的投递不等了：没 commit 的下次启动会重放
+    @PreDestroy
+    public void shutdown() throws IOException {
+        AckLog l = ackLog;
+        if (l == null) return;
+        running = false;
+        drainer.interrupt();
+        l.close();
+        log.info("ACK_QUEUE closed committed={} pending={}", l.committed(), l.pending());
+    }
+}
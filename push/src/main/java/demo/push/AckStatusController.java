@@ -0,0 +1,54 @@
+package demo.push;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * GET /push/status/{reqId}：async-ack 受理的请求现在投递到哪一步了（ACCEPTED / SENDING / DONE / FAILED），
+ * DONE 时带 order 的响应。只查内存里的最近 push.ack.statusCapacity 条，查不到回 404 + retCode=900005。
+ */
+@RestController
+public class AckStatusController {
+
+    // 内存里没有这个 reqId（没受理过、被挤出去了，或者是重启前就处理完的）
+    static final String RET_ACK_UNKNOWN = "900005";
+
+    private final AckQueue ackQueue;
+
+    public AckStatusController(AckQueue ackQueue) {
+        this.ackQueue = ackQueue;
+    }
+
+    @GetMapping("/push/status/{reqId}")
+    public ResponseEntity<Map<String, Object>> status(@PathVariable String reqId) {
+        AckQueue.Status st = ackQueue.status(reqId);
+        Map<String, Object> out = new LinkedHashMap<>();
+        if (st == null) {
+            out.put("retCode", RET_ACK_UNKNOWN);
+            out.put("retMsg", "unknown reqId");
+            out.put("reqId", reqId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(out);
+        }
+        out.put("retCode", PushController.RET_OK);
+        out.put("retMsg", "OK");
+        out.put("reqId", st.reqId);
+        out.put("ackSeq", st.seq);
+        out.put("ackState", st.state);
+        out.put("attempts", st.attempts);
+        out.put("acceptedAt", Instant.ofEpochMilli(st.acceptedAtMs).toString());
+        if (st.doneAtMs > 0) {
+            out.put("doneAt", Instant.ofEpochMilli(st.doneAtMs).toString());
+            out.put("deliverMs", st.doneAtMs - st.acceptedAtMs);
+        }
+        if (st.error != null) out.put("error", st.error);
+        if (st.orderResp != null) out.put("orderResp", st.orderResp);
+        return ResponseEntity.ok(out);
+    }
+}
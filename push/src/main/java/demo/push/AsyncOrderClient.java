@@ -0,0 +1,157 @@
+package demo.push;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import reactor.core.publisher.Mono;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * asyncapache 模式：Apache HttpAsyncClient（NIO）调 order，回调转成 Mono。
+ * 池子上限/keep-alive/超时跟 RestTemplate 用同一套 push.httpclient.*，但在途请求不占线程：
+ * 发出去之后 reactor-http 线程就回去了，响应在 push-async-io-* 线程上回来，后面的 map 也在那上面跑。
+ * 取消订阅（截止时间到、对冲输了）会 cancel 这次交换，连接被关掉而不是还回池子。
+ */
+@Component
+public class AsyncOrderClient {
+
+    private final PushProperties props;
+    private final CloseableHttpAsyncClient client;
+    private final PoolingNHttpClientConnectionManager cm;
+    private final ObjectMapper mapper;
+    private final OrderBalancer balancer;
+
+    public AsyncOrderClient(PushProperties props, CloseableHttpAsyncClient client,
+                            PoolingNHttpClientConnectionManager cm, ObjectMapper mapper, PushMetrics metrics,
+                            OrderBalancer balancer) {
+        this.props = props;
+        this.client = client;
+        this.cm = cm;
+        this.mapper = mapper;
+        this.balancer = balancer;
+        metrics.gauge("push_http_async_pool_connections", "Apache HttpAsyncClient pool (asyncapache) connections by state", () -> {
+            PoolStats s = cm.getTotalStats();
+            Map<String, Integer> out = new LinkedHashMap<>();
+            out.put("state=\"leased\"", s.getLeased());
+            out.put("state=\"pending\"", s.getPending());
+            out.put("state=\"available\"", s.getAvailable());
+            out.put("state=\"max\"", s.getMax());
+            return out;
+        });
+    }
+
+    /** POST /order；惰性，订阅时才选实例、发出 */
+    public Mono<Map<String, Object>> postOrder(Map<String, Object> body, long deadlineMs) {
+        return balancer.call(deadlineMs, baseUrl -> post(baseUrl, body, deadlineMs));
+    }
+
+    private Mono<Map<String, Object>> post(String baseUrl, Map<String, Object> body, long deadlineMs) {
+        return Mono.create(sink -> {
+            long remaining = Deadline.remainingMs(deadlineMs);
+            if (remaining <= 0) {
+                sink.error(new Deadline.ExceededException(deadlineMs));
+                return;
+            }
+
+            HttpPost post = new HttpPost(baseUrl + "/order");
+            try {
+                post.setEntity(new ByteArrayEntity(mapper.writeValueAsBytes(body), ContentType.APPLICATION_JSON));
+            } catch (Exception e) {
+                sink.error(e);
+                return;
+            }
+            if (deadlineMs > 0) {
+                post.setHeader(Deadline.HEADER, Long.toString(deadlineMs));
+                // 同 RestTemplate 那边：本次的读超时/取连接超时不超过剩余预算
+                PushProperties.HttpClientProps hp = props.getHttpclient();
+                int r = (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining));
+                post.setConfig(RequestConfig.custom()
+                        .setConnectTimeout(Math.min(hp.getConnectTimeoutMs(), r))
+                        .setSocketTimeout(Math.min(hp.getReadTimeoutMs(), r))
+                        .setConnectionRequestTimeout(Math.min(hp.getConnectionRequestTimeoutMs(), r))
+                        .build());
+            }
+
+            Future<HttpResponse> future = client.execute(post, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    try {
+                        sink.success(read(response));
+                    } catch (Exception e) {
+                        sink.error(e);
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    if (deadlineMs > 0 && Deadline.remainingMs(deadlineMs) <= 0 && isTimeout(e)) {
+                        sink.error(new Deadline.ExceededException(deadlineMs));
+                    } else {
+                        sink.error(e);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    // 只有下面 onCancel 会 cancel，订阅方已经走了
+                }
+            });
+            sink.onCancel(() -> future.cancel(true));
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> read(HttpResponse response) throws Exception {
+        int status = response.getStatusLine().getStatusCode();
+        byte[] bytes = response.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(response.getEntity());
+        if (status >= 400) {
+            // 跟 RestTemplate 的默认错误处理一致
+            HttpStatus hs = HttpStatus.valueOf(status);
+            String text = response.getStatusLine().getReasonPhrase();
+            if (hs.is4xxClientError()) {
+                throw HttpClientErrorException.create(hs, text, HttpHeaders.EMPTY, bytes, StandardCharsets.UTF_8);
+            }
+            throw HttpServerErrorException.create(hs, text, HttpHeaders.EMPTY, bytes, StandardCharsets.UTF_8);
+        }
+        return mapper.readValue(bytes, Map.class);
+    }
+
+    private static boolean isTimeout(Exception e) {
+        return e instanceof SocketTimeoutException
+                || e instanceof ConnectTimeoutException
+                || e instanceof TimeoutException;
+    }
+
+    // NIO 池没有 evictIdleConnections，自己定期关掉过期/空闲太久的连接
+    @Scheduled(fixedDelay = 5000)
+    public void evictIdle() {
+        cm.closeExpiredConnections();
+        cm.closeIdleConnections(props.getHttpclient().getKeepAliveSeconds(), TimeUnit.SECONDS);
+    }
+
+    public PoolStats poolStats() {
+        return cm.getTotalStats();
+    }
+}
@@ -0,0 +1,60 @@
+package demo.push;
+
+import java.util.concurrent.Callable;
+
+/**
+ * trans → push → order 的截止时间：请求头 X-Deadline，值是绝对时间（epoch 毫秒）。
+ * push 用剩余预算限制调 order 的耗时并把同一个头转给 order；已经过期的请求不再调 order。
+ * RestTemplate 这条路通过线程变量把截止时间带给 OrderClients 里的 request factory，
+ * 由它把本次请求的 socket/连接池超时压到剩余预算以内。
+ */
+public final class Deadline {
+
+    public static final String HEADER = "X-Deadline";
+
+    private static final ThreadLocal<Long> CURRENT = new ThreadLocal<>();
+
+    private Deadline() {
+    }
+
+    /** 已过截止时间（调 order 之前、或 order 调用被截止时间打断） */
+    public static class ExceededException extends RuntimeException {
+        public ExceededException(long deadlineMs) {
+            super("deadline " + deadlineMs + " exceeded by " + (System.currentTimeMillis() - deadlineMs) + "ms",
+                    null, false, false);
+        }
+    }
+
+    /** 解析请求头，没有/格式不对返回 0（不限） */
+    public static long parse(String header) {
+        if (header == null || header.isEmpty()) return 0;
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** 剩余毫秒数；deadlineMs=0 表示不限，返回 Long.MAX_VALUE */
+    public static long remainingMs(long deadlineMs) {
+        return deadlineMs <= 0 ? Long.MAX_VALUE : deadlineMs - System.currentTimeMillis();
+    }
+
+    /** 当前线程上的截止时间（只在 call 期间有效），0 表示不限 */
+    public static long current() {
+        Long d = CURRENT.get();
+        return d == null ? 0 : d;
+    }
+
+    /** 带着截止时间执行 call：已经过期直接抛 ExceededException */
+    public static <T> T callWithin(long deadlineMs, Callable<T> call) throws Exception {
+        if (deadlineMs <= 0) return call.call();
+        if (remainingMs(deadlineMs) <= 0) throw new ExceededException(deadlineMs);
+        CURRENT.set(deadlineMs);
+        try {
+            return call.call();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+}
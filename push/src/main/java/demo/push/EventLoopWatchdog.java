@@ -0,0 +1,156 @@
+package demo.push;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * event-loop 卡顿检测（进程内版的 jstack_watch.sh + analyze_jstack.py）：
+ * 每 intervalMs 往每个 reactor-http event loop 投一个空任务，任务真正跑起来的时间 - 投递时间 = 调度延迟（lag）。
+ * - lag 全部记进 push_eventloop_lag_seconds 直方图
+ * - 任务超过 thresholdMs 还没跑，说明这个 loop 正被占着：抓一次它当前的栈，打 EVENT_LOOP_BLOCKED 日志，
+ *   按栈里第一个 demo.* 帧（没有就用栈顶）计 push_eventloop_blocked_total
+ * blocking 模式下抓到的一般就是 PushController.callOrderByRestTemplate → RestTemplate.exchange → socketRead0。
+ */
+@Component
+public class EventLoopWatchdog {
+    private static final Logger log = LoggerFactory.getLogger(EventLoopWatchdog.class);
+
+    private final PushProperties props;
+    private final ReactorResourceFactory resources;
+    private final PushMetrics.Timer lagTimer;
+    private final PushMetrics.Counter blocked;
+
+    private final List<Probe> probes = new ArrayList<>();
+    private ScheduledExecutorService ticker;
+
+    // 区间统计，给 HttpPoolLogger 输出
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final AtomicLong blockedEvents = new AtomicLong();
+
+    public EventLoopWatchdog(PushProperties props, ReactorResourceFactory resources, PushMetrics metrics) {
+        this.props = props;
+        this.resources = resources;
+        this.lagTimer = metrics.timer("push_eventloop_lag_seconds",
+                "delay between submitting a no-op task to a reactor-http event loop and it running");
+        this.blocked = metrics.counter("push_eventloop_blocked_total",
+                "event-loop stalls over push.watchdog.thresholdMs, by first demo.* frame (or top frame)", "frame");
+    }
+
+    /** 一个 event loop 的探针：pendingSince=0 表示没有在途的探测任务 */
+    private final class Probe implements Runnable {
+        final EventExecutor loop;
+        volatile Thread thread;
+        volatile long pendingSince;
+        volatile boolean captured;
+
+        Probe(EventExecutor loop) {
+            this.loop = loop;
+        }
+
+        @Override
+        public void run() {
+            long lag = System.nanoTime() - pendingSince;
+            thread = Thread.currentThread();
+            lagTimer.record(lag);
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+            pendingSince = 0;
+        }
+    }
+
+    // 服务端 event loop 在 web server 启动后才确定，等应用就绪再开始
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        PushProperties.WatchdogProps wp = props.getWatchdog();
+        if (!wp.isEnabled()) return;
+
+        EventLoopGroup group = resources.getLoopResources().onServer(true);
+        for (EventExecutor loop : group) {
+            probes.add(new Probe(loop));
+        }
+
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "push-loop-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, wp.getIntervalMs());
+        ticker.scheduleAtFixedRate(this::tick, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("EVENT_LOOP watchdog loops={} intervalMs={} thresholdMs={}", probes.size(), interval, wp.getThresholdMs());
+    }
+
+    private void tick() {
+        long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(props.getWatchdog().getThresholdMs());
+        long now = System.nanoTime();
+        for (Probe p : probes) {
+            long since = p.pendingSince;
+            if (since != 0) {
+                // 上一个探测任务还没跑：loop 正被占着，每次卡顿只抓一次栈
+                if (!p.captured && now - since >= thresholdNanos && p.thread != null) {
+                    p.captured = true;
+                    capture(p.thread, TimeUnit.NANOSECONDS.toMillis(now - since));
+                }
+                continue;
+            }
+            p.captured = false;
+            p.pendingSince = now;
+            try {
+                p.loop.execute(p);
+            } catch (RuntimeException e) {
+                // loop 正在关闭
+                p.pendingSince = 0;
+            }
+        }
+    }
+
+    private void capture(Thread thread, long lagMs) {
+        StackTraceElement[] stack = thread.getStackTrace();
+        String frame = stack.length == 0 ? "unknown" : frameName(stack[0]);
+        for (StackTraceElement e : stack) {
+            if (e.getClassName().startsWith("demo.")) {
+                frame = frameName(e);
+                break;
+            }
+        }
+        blocked.inc(frame);
+        blockedEvents.incrementAndGet();
+
+        int depth = Math.min(stack.length, Math.max(1, props.getWatchdog().getStackDepth()));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("\n\tat ").append(stack[i]);
+        }
+        log.warn("EVENT_LOOP_BLOCKED thread={} lagMs>={} frame={}{}", thread.getName(), lagMs, frame, sb);
+    }
+
+    private static String frameName(StackTraceElement e) {
+        return e.getClassName() + "." + e.getMethodName();
+    }
+
+    /** 取走区间统计：[maxLagMs, blockedEvents] */
+    public long[] drainStats() {
+        return new long[]{TimeUnit.NANOSECONDS.toMillis(maxLagNanos.getAndSet(0)), blockedEvents.getAndSet(0)};
+    }
+
+    public int loopCount() {
+        return probes.size();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) ticker.shutdownNow();
+    }
+}
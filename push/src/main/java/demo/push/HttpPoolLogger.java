@@ -1,5 +1,6 @@
 package demo.push;
 
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
@@ -7,16 +8,51 @@ import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 @Component
 public class HttpPoolLogger {
     private static final Logger log = LoggerFactory.getLogger(HttpPoolLogger.class);
 
     private final PushProperties props;
     private final PoolingHttpClientConnectionManager cm;
+    private final InflightGauges inflight;
+    private final OffloadExecutor offload;
+    private final SingleFlight singleFlight;
+    private final OrderBatcher orderBatcher;
+    private final EventLoopWatchdog watchdog;
+    private final ThreadSampler sampler;
+    private final OrderLimiter limiter;
+    private final OrderHedger hedger;
+    private final WebClientPoolStats webClientPool;
+    private final AsyncOrderClient asyncOrderClient;
+    private final AckQueue ackQueue;
+    private final OrderBalancer balancer;
+    private final OrderCircuitBreaker breaker;
+    private final PushMetrics metrics;
 
-    public HttpPoolLogger(PushProperties props, PoolingHttpClientConnectionManager cm) {
+    public HttpPoolLogger(PushProperties props, PoolingHttpClientConnectionManager cm, InflightGauges inflight,
+                          OffloadExecutor offload, SingleFlight singleFlight, OrderBatcher orderBatcher,
+                          EventLoopWatchdog watchdog, ThreadSampler sampler,
+                          OrderLimiter limiter, OrderHedger hedger, WebClientPoolStats webClientPool,
+                          AsyncOrderClient asyncOrderClient, AckQueue ackQueue, OrderBalancer balancer,
+                          OrderCircuitBreaker breaker, PushMetrics metrics) {
         this.props = props;
         this.cm = cm;
+        this.inflight = inflight;
+        this.offload = offload;
+        this.singleFlight = singleFlight;
+        this.orderBatcher = orderBatcher;
+        this.watchdog = watchdog;
+        this.sampler = sampler;
+        this.limiter = limiter;
+        this.hedger = hedger;
+        this.webClientPool = webClientPool;
+        this.asyncOrderClient = asyncOrderClient;
+        this.ackQueue = ackQueue;
+        this.balancer = balancer;
+        this.breaker = breaker;
+        this.metrics = metrics;
     }
 
     // 每秒检查一次，是否需要输出由配置控制（间隔秒数）
@@ -33,5 +69,91 @@ public class HttpPoolLogger {
         PoolStats total = cm.getTotalStats();
         log.info("HTTP_POOL total leased={} pending={} available={} max={}",
                 total.getLeased(), total.getPending(), total.getAvailable(), total.getMax());
+        if (balancer.size() > 1) {
+            // 多个 order 实例时各自一个 route 池
+            for (HttpRoute route : cm.getRoutes()) {
+                PoolStats s = cm.getStats(route);
+                log.info("HTTP_POOL route={} leased={} pending={} available={} max={}",
+                        route.getTargetHost(), s.getLeased(), s.getPending(), s.getAvailable(), s.getMax());
+            }
+            // requests/failures 是区间值，ejections 是累计值
+            for (Map.Entry<String, long[]> e : balancer.drainStats().entrySet()) {
+                long[] b = e.getValue();
+                log.info("ORDER_LB instance={} outstanding={} latencyMs={} requests={} failures={} ejected={} ejections={}",
+                        e.getKey(), b[0], b[1], b[2], b[3], b[4], b[5]);
+            }
+        }
+
+        PoolStats async = asyncOrderClient.poolStats();
+        if (async.getLeased() + async.getAvailable() + async.getPending() > 0) {
+            log.info("HTTP_ASYNC_POOL total leased={} pending={} available={} max={}",
+                    async.getLeased(), async.getPending(), async.getAvailable(), async.getMax());
+        }
+        if (webClientPool.isUsed()) {
+            int[] wc = webClientPool.snapshot();
+            long[] acq = webClientPool.drainStats();
+            log.info("WEBCLIENT_POOL connections={} active={} idle={} pending={} max={} acquired={} acquireAvgMs={} acquireMaxMs={} acquireFailed={}",
+                    wc[0], wc[1], Math.max(0, wc[0] - wc[1]), wc[2], wc[3],
+                    acq[0], acq[1], acq[2], acq[3]);
+        }
+
+        if (breaker.isEnabled()) {
+            // 比例按当前窗口，转换次数和 rejected 是累计值
+            for (Map.Entry<String, long[]> e : breaker.stats().entrySet()) {
+                long[] b = e.getValue();
+                log.info("ORDER_BREAKER route={} state={} calls={} failureRate={}% slowRate={}% toOpen={} toHalfOpen={} toClosed={} rejected={}",
+                        e.getKey(), OrderCircuitBreaker.stateName(b[0]), b[1], b[2], b[3], b[4], b[5], b[6],
+                        breaker.rejected());
+            }
+        }
+
+        // 排队统计是区间值（上次输出到现在）
+        long[] wait = offload.drainWaitStats();
+        log.info("OFFLOAD_POOL threads={} active={} queued={} remaining={} rejected={} tasks={} waitAvgMs={} waitMaxMs={}",
+                offload.getPoolSize(), offload.getActiveCount(), offload.getQueue().size(),
+                offload.getQueue().remainingCapacity(), offload.getRejectedCount(), wait[0], wait[1], wait[2]);
+        long[] sf = singleFlight.stats();
+        log.info("SINGLE_FLIGHT orderCalls={} inflightHits={} cacheHits={} inflightKeys={} cachedKeys={}",
+                sf[0], sf[1], sf[2], sf[3], sf[4]);
+        long[] batch = orderBatcher.drainStats();
+        if (batch[0] > 0) {
+            log.info("ORDER_BATCH batches={} items={} avgSize={} maxSize={}",
+                    batch[0], batch[1], batch[1] / batch[0], batch[2]);
+        }
+        if (ackQueue.isOpen()) {
+            // 计数是启动以来的累计值
+            long[] ack = ackQueue.stats();
+            log.info("ACK_QUEUE pending={} segments={} committed={} accepted={} duplicates={} rejected={} attempts={} retries={} done={} failed={}",
+                    ack[0], ack[1], ack[9], ack[2], ack[3], ack[4], ack[5], ack[6], ack[7], ack[8]);
+        }
+        if (props.getLimiter().isEnabled()) {
+            long[] lim = limiter.stats();
+            log.info("ORDER_LIMITER limit={} inflight={} rejected={} dropped={} lastRttMs={} longRttMs={}",
+                    lim[0], lim[1], lim[2], lim[3], lim[4], lim[5]);
+        }
+        if (props.getHedge().isEnabled()) {
+            long[] h = hedger.stats();
+            log.info("ORDER_HEDGE calls={} hedged={} hedgeWon={} budgetDenied={} delayMs={}",
+                    h[0], h[1], h[2], h[3], h[4]);
+        }
+        if (watchdog.loopCount() > 0) {
+            long[] loop = watchdog.drainStats();
+            log.info("EVENT_LOOP loops={} lagMaxMs={} blocked={}", watchdog.loopCount(), loop[0], loop[1]);
+        }
+        for (Map.Entry<String, int[]> e : sampler.summary().entrySet()) {
+            int[] c = e.getValue();
+            log.info("THREAD_SAMPLE pool={} threads={} restTemplate={} socketRead={} idle={} other={}",
+                    e.getKey(), c[0], c[1], c[2], c[3], c[4]);
+        }
+        if (!inflight.snapshot().isEmpty()) {
+            log.info("PUSH_INFLIGHT {}", inflight.snapshot());
+        }
+        // 各模式的区间请求数/结果/耗时分位数，分流压测时几个模式的行挨着比
+        for (Map.Entry<String, long[]> e : metrics.drainModeStats().entrySet()) {
+            long[] m = e.getValue();
+            if (m[0] == 0) continue;
+            log.info("PUSH_MODE mode={} requests={} ok={} rejected={} error={} cancelled={} overTimeout={} p50Ms={} p90Ms={} p99Ms={}",
+                    e.getKey(), m[0], m[1], m[2], m[3], m[4], m[5], m[6], m[7], m[8]);
+        }
     }
 }
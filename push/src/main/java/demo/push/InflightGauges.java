@@ -0,0 +1,33 @@
+package demo.push;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 各 push.mode 的在途请求数（调用 order 期间 +1，结束 -1），
+ * 由 HttpPoolLogger 跟连接池状态一起输出，便于横向对比各模式。
+ */
+@Component
+public class InflightGauges {
+
+    private final Map<String, AtomicInteger> gauges = new ConcurrentHashMap<>();
+
+    public int inc(String mode) {
+        return gauge(mode).incrementAndGet();
+    }
+
+    public int dec(String mode) {
+        return gauge(mode).decrementAndGet();
+    }
+
+    public Map<String, AtomicInteger> snapshot() {
+        return gauges;
+    }
+
+    private AtomicInteger gauge(String mode) {
+        return gauges.computeIfAbsent(mode.toLowerCase(), k -> new AtomicInteger());
+    }
+}
@@ -0,0 +1,58 @@
+package demo.push;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GET /metrics：Prometheus 文本格式，抓取时才现算（请求路径上只有 LongAdder 累加）。
+ * HttpPoolLogger 里的几项状态也作为 gauge 挂在这里，不用再翻日志。
+ */
+@RestController
+public class MetricsController {
+
+    static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final PushMetrics metrics;
+
+    public MetricsController(PushMetrics metrics, InflightGauges inflight,
+                             PoolingHttpClientConnectionManager cm, OffloadExecutor offload) {
+        this.metrics = metrics;
+
+        metrics.gauge("push_inflight", "order calls in flight by push.mode", () -> {
+            Map<String, Integer> out = new LinkedHashMap<>();
+            for (Map.Entry<String, AtomicInteger> e : inflight.snapshot().entrySet()) {
+                out.put("mode=\"" + e.getKey() + "\"", e.getValue().get());
+            }
+            return out;
+        });
+        metrics.gauge("push_http_pool_connections", "Apache HttpClient pool (RestTemplate) connections by state", () -> {
+            PoolStats s = cm.getTotalStats();
+            Map<String, Integer> out = new LinkedHashMap<>();
+            out.put("state=\"leased\"", s.getLeased());
+            out.put("state=\"pending\"", s.getPending());
+            out.put("state=\"available\"", s.getAvailable());
+            out.put("state=\"max\"", s.getMax());
+            return out;
+        });
+        metrics.gauge("push_offload_queued", "tasks waiting in the offload queue",
+                () -> Collections.singletonMap("", offload.getQueue().size()));
+        metrics.gauge("push_offload_active", "offload threads running a task",
+                () -> Collections.singletonMap("", offload.getActiveCount()));
+        metrics.gauge("push_offload_rejected", "offload tasks rejected since start (queue full)",
+                () -> Collections.singletonMap("", offload.getRejectedCount()));
+    }
+
+    @GetMapping(value = "/metrics", produces = PROMETHEUS_TEXT)
+    public String metrics() {
+        StringBuilder sb = new StringBuilder(4096);
+        metrics.writePrometheus(sb);
+        return sb.toString();
+    }
+}
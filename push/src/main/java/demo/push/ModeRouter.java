@@ -0,0 +1,145 @@
+package demo.push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 每个 /push 请求用哪个模式：请求头（push.routing.header）> 按权重随机分（push.routing.split）> push.mode。
+ * 同一次压测里几种模式面对的是同一时刻的 order、同一份负载，各模式的耗时/超时在 PUSH_MODE 日志和 /metrics 里并排看。
+ * 选定的模式挂在 exchange 上，PushWebFilter、PassthroughHandler 的路由判断和 PushController 看到的是同一个。
+ * 权重和 push.mode 可以通过 POST /admin/push 运行时改。
+ * 当前构建用不了的模式（没有 jdk21 profile 时的 virtual）不会被选中：请求头指定的忽略，分流抽中的改用 push.mode。
+ */
+@Component
+public class ModeRouter {
+    private static final Logger log = LoggerFactory.getLogger(ModeRouter.class);
+
+    public static final List<String> MODES = Collections.unmodifiableList(Arrays.asList(
+            "blocking", "offload", "virtual", "webclient", "batch", "asyncapache", "passthrough", AckQueue.MODE));
+
+    private static final String MODE_ATTR = ModeRouter.class.getName() + ".mode";
+
+    /** 不可变的一份权重表，整体替换 */
+    private static final class Split {
+        final String[] modes;
+        final int[] upper;
+        final int total;
+        final Map<String, Integer> weights;
+
+        Split(Map<String, Integer> weights) {
+            this.weights = Collections.unmodifiableMap(new LinkedHashMap<>(weights));
+            this.modes = new String[weights.size()];
+            this.upper = new int[weights.size()];
+            int i = 0;
+            int sum = 0;
+            for (Map.Entry<String, Integer> e : weights.entrySet()) {
+                sum += e.getValue();
+                modes[i] = e.getKey();
+                upper[i] = sum;
+                i++;
+            }
+            this.total = sum;
+        }
+
+        String pick() {
+            int r = ThreadLocalRandom.current().nextInt(total);
+            for (int i = 0; i < upper.length; i++) {
+                if (r < upper[i]) return modes[i];
+            }
+            return modes[modes.length - 1];
+        }
+    }
+
+    private final PushProperties props;
+    // virtualScheduler 只有 jdk21 profile 构建时才存在（VirtualThreadConfig）
+    private final boolean virtualAvailable;
+    private volatile Split split;
+
+    public ModeRouter(PushProperties props,
+                      @Qualifier("virtualScheduler") ObjectProvider<Scheduler> virtualScheduler) {
+        this.props = props;
+        this.virtualAvailable = virtualScheduler.getIfAvailable() != null;
+        this.split = build(props.getRouting().getSplit());
+        PushProperties.RoutingProps rp = props.getRouting();
+        log.info("PUSH_ROUTING init mode={} split={} header={}", props.getMode(), split(),
+                rp.isHeaderEnabled() ? rp.getHeader() : "off");
+        for (String m : split().keySet()) {
+            if (!isAvailable(m)) log.warn("PUSH_ROUTING split mode {} not available in this build, uses push.mode instead", m);
+        }
+    }
+
+    /** 当前构建能不能跑这个模式（规范写法） */
+    public boolean isAvailable(String mode) {
+        return !"virtual".equals(mode) || virtualAvailable;
+    }
+
+    /** 本请求的模式（第一次调用时决定，之后都返回同一个） */
+    public String resolve(ServerWebExchange exchange) {
+        String mode = exchange.getAttribute(MODE_ATTR);
+        if (mode != null) return mode;
+        PushProperties.RoutingProps rp = props.getRouting();
+        if (rp.isHeaderEnabled()) {
+            mode = normalize(exchange.getRequest().getHeaders().getFirst(rp.getHeader()));
+            if (mode != null && !isAvailable(mode)) mode = null;
+        }
+        if (mode == null) {
+            Split s = split;
+            mode = s != null ? s.pick() : null;
+            if (mode == null || !isAvailable(mode)) mode = defaultMode();
+        }
+        exchange.getAttributes().put(MODE_ATTR, mode);
+        return mode;
+    }
+
+    /** push.mode 的规范写法；不认识的原样返回（PushController 里落到 webclient） */
+    private String defaultMode() {
+        String m = normalize(props.getMode());
+        return m != null ? m : props.getMode();
+    }
+
+    /** 认识的模式返回规范写法，不认识/空返回 null */
+    static String normalize(String mode) {
+        if (mode == null) return null;
+        String m = mode.trim().toLowerCase(Locale.ROOT);
+        return MODES.contains(m) ? m : null;
+    }
+
+    /** 当前权重，没有分流时为空 */
+    public Map<String, Integer> split() {
+        Split s = split;
+        return s == null ? Collections.<String, Integer>emptyMap() : s.weights;
+    }
+
+    /** 换一份权重；空表示不分流（都用 push.mode）。模式名不认识、权重为负、总和为 0 时 IllegalArgumentException */
+    public void setSplit(Map<String, Integer> weights) {
+        split = build(weights);
+        log.info("PUSH_ROUTING split={}", split());
+    }
+
+    private static Split build(Map<String, Integer> weights) {
+        if (weights == null || weights.isEmpty()) return null;
+        Map<String, Integer> clean = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> e : weights.entrySet()) {
+            String m = normalize(e.getKey());
+            if (m == null) throw new IllegalArgumentException("unknown mode in split: " + e.getKey());
+            int w = e.getValue() == null ? 0 : e.getValue();
+            if (w < 0) throw new IllegalArgumentException("negative weight for " + m + ": " + w);
+            if (w > 0) clean.merge(m, w, Integer::sum);
+        }
+        if (clean.isEmpty()) throw new IllegalArgumentException("split weights sum to 0");
+        return new Split(clean);
+    }
+}
@@ -0,0 +1,29 @@
+package demo.push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+@Configuration
+public class OffloadConfig {
+    private static final Logger log = LoggerFactory.getLogger(OffloadConfig.class);
+
+    @Bean(destroyMethod = "shutdown")
+    public OffloadExecutor offloadExecutor(PushProperties props) {
+        PushProperties.OffloadProps op = props.getOffload();
+
+        // threads<=0 时跟 httpclient.maxTotal 对齐：线程数多于连接数只会卡在 connectionRequestTimeout 上
+        int threads = op.getThreads() > 0 ? op.getThreads() : props.getHttpclient().getMaxTotal();
+        OffloadExecutor executor = new OffloadExecutor(threads, op.getQueueCapacity());
+        log.info("OFFLOAD_POOL init threads={} queueCapacity={}", threads, op.getQueueCapacity());
+        return executor;
+    }
+
+    @Bean(name = "offloadScheduler", destroyMethod = "dispose")
+    public Scheduler offloadScheduler(OffloadExecutor offloadExecutor) {
+        return Schedulers.fromExecutorService(offloadExecutor);
+    }
+}
@@ -0,0 +1,97 @@
+package demo.push;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * offload 模式专用线程池（舱壁）：固定线程数 + 有界队列，队列满直接拒绝（AbortPolicy），
+ * 不再像 boundedElastic 那样悄悄排队。
+ * 顺带统计每个任务在队列里等了多久（排队时间 = 开始执行 - 提交）。
+ */
+public class OffloadExecutor extends ThreadPoolExecutor {
+
+    private static final ThreadLocal<Long> CURRENT_WAIT_MS = new ThreadLocal<>();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    // 区间统计，由 HttpPoolLogger 周期性取走并清零
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitTotalMs = new AtomicLong();
+    private final AtomicLong waitMaxMs = new AtomicLong();
+
+    public OffloadExecutor(int threads, int queueCapacity) {
+        super(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                new NamedFactory("push-offload-"),
+                new AbortPolicy());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        try {
+            super.execute(new Timed(command));
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof Timed) {
+            long waitMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ((Timed) r).enqueuedNanos);
+            CURRENT_WAIT_MS.set(waitMs);
+            waitCount.incrementAndGet();
+            waitTotalMs.addAndGet(waitMs);
+            waitMaxMs.accumulateAndGet(waitMs, Math::max);
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        CURRENT_WAIT_MS.remove();
+    }
+
+    /** 当前线程正在执行的任务的排队时间，不在 offload 线程上则为 -1 */
+    public static long currentTaskWaitMs() {
+        Long w = CURRENT_WAIT_MS.get();
+        return w == null ? -1 : w;
+    }
+
+    public long getRejectedCount() { return rejected.get(); }
+
+    /** 取走区间内的排队统计：[count, avgMs, maxMs] */
+    public long[] drainWaitStats() {
+        long count = waitCount.getAndSet(0);
+        long total = waitTotalMs.getAndSet(0);
+        long max = waitMaxMs.getAndSet(0);
+        return new long[]{count, count == 0 ? 0 : total / count, max};
+    }
+
+    private static final class Timed implements Runnable {
+        private final Runnable delegate;
+        private final long enqueuedNanos = System.nanoTime();
+
+        Timed(Runnable delegate) { this.delegate = delegate; }
+
+        @Override public void run() { delegate.run(); }
+    }
+
+    static final class NamedFactory implements java.util.concurrent.ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger seq = new AtomicInteger();
+
+        NamedFactory(String prefix) { this.prefix = prefix; }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName(prefix + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
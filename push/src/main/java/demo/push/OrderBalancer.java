@@ -0,0 +1,410 @@
+package demo.push;
+
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 调 order 的客户端负载均衡（push.orderBaseUrls 配了多个 order 实例），所有模式共用，每次调用（含对冲、重试）单独选一次：
+ * - strategy=roundrobin：轮询；least：在途最少的；p2c：随机挑两个，取 延迟EWMA × (在途+1) 小的那个
+ * - 延迟 EWMA 按每次调用的耗时更新；一直没被选中的实例，EWMA 按 idleDecayMs 往所有实例的均值回落，慢过的实例过后还能被试到
+ * - 被动摘除：连续 consecutiveFailures 次失败（连不上、超时、5xx），或 EWMA 超过其余实例均值的 latencyFactor 倍，
+ *   摘掉 baseEjectionMs × 第几次被摘（最多 maxEjectionMs）；同时被摘的不超过 maxEjectionPercent%，全都不可用时当没摘
+ * - 请求自己的截止时间（X-Deadline）用完导致的失败不怪实例：socket/取连接超时本来就压到了剩余预算以内，
+ *   结束时已过截止时间的失败、Deadline.ExceededException、order 回的 504 都不计入 EWMA 和失败次数，
+ *   否则预算快用完的慢请求会让健康的实例被摘
+ * - 每个实例带一个熔断器（OrderCircuitBreaker.Route），熔断打开的不选；所有实例都不放行时直接 OpenException
+ * - 每个实例各自一个连接池：Apache 两个池子本来就按 route 分（httpclient.maxPerRoute 是单实例上限），
+ *   reactor-netty 的 fixed 池按远端地址分（webclient.maxConnections 是单实例上限）
+ */
+@Component
+public class OrderBalancer {
+    private static final Logger log = LoggerFactory.getLogger(OrderBalancer.class);
+
+    public static final String ROUND_ROBIN = "roundrobin";
+    public static final String LEAST = "least";
+    public static final String P2C = "p2c";
+
+    // order 在 X-Deadline 到了时回的状态码
+    private static final int GATEWAY_TIMEOUT = 504;
+
+    /** RestTemplate 那类同步调用 */
+    public interface Call<T> {
+        T call(String baseUrl) throws Exception;
+    }
+
+    private static final class Instance {
+        final String baseUrl;
+        final OrderCircuitBreaker.Route route;
+        final AtomicInteger outstanding = new AtomicInteger();
+        // EWMA 和失败计数在 synchronized(this) 里改；0 = 还没有样本
+        volatile double ewmaNanos;
+        volatile long lastSampleNanos;
+        long samples;
+        int consecutiveFailures;
+        // 摘除相关只在 synchronized(OrderBalancer.this) 里改
+        volatile long ejectedUntilMs;
+        int ejections;
+        long lastEjectedMs;
+        final AtomicLong ejectionsTotal = new AtomicLong();
+        // 区间计数
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+
+        Instance(String baseUrl, OrderCircuitBreaker.Route route) {
+            this.baseUrl = baseUrl;
+            this.route = route;
+        }
+    }
+
+    /** 一次调用占用的实例和熔断凭证，结束时只交回一次 */
+    private static final class Lease {
+        final Instance inst;
+        final long ticket;
+        // 这次调用的截止时间，0 表示不限
+        final long deadlineMs;
+        final long startNanos = System.nanoTime();
+        final AtomicBoolean done = new AtomicBoolean();
+
+        Lease(Instance inst, long ticket, long deadlineMs) {
+            this.inst = inst;
+            this.ticket = ticket;
+            this.deadlineMs = deadlineMs;
+        }
+    }
+
+    private final PushProperties.BalancerProps bp;
+    private final OrderCircuitBreaker breaker;
+    private final List<Instance> instances;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public OrderBalancer(PushProperties props, PushMetrics metrics, OrderCircuitBreaker breaker) {
+        this.bp = props.getBalancer();
+        this.breaker = breaker;
+        List<Instance> list = new ArrayList<>();
+        for (String u : props.getOrderBaseUrls()) {
+            String url = u == null ? "" : u.trim();
+            while (url.endsWith("/")) url = url.substring(0, url.length() - 1);
+            if (!url.isEmpty()) list.add(new Instance(url, breaker.route(url)));
+        }
+        if (list.isEmpty()) list.add(new Instance(props.getOrderBaseUrl(), breaker.route(props.getOrderBaseUrl())));
+        this.instances = Collections.unmodifiableList(list);
+
+        List<String> urls = new ArrayList<>();
+        for (Instance i : instances) urls.add(i.baseUrl);
+        log.info("ORDER_LB init instances={} strategy={} consecutiveFailures={} latencyFactor={} baseEjectionMs={}",
+                urls, bp.getStrategy(), bp.getConsecutiveFailures(), bp.getLatencyFactor(), bp.getBaseEjectionMs());
+
+        metrics.gauge("push_order_instance_outstanding", "order calls in flight per order instance",
+                () -> perInstance(i -> i.outstanding.get()));
+        metrics.gauge("push_order_instance_latency_ms", "latency EWMA per order instance as seen by the balancer",
+                () -> perInstance(i -> i.ewmaNanos / 1e6));
+        metrics.gauge("push_order_instance_ejected", "1 while an order instance is ejected by outlier detection",
+                () -> perInstance(i -> i.ejectedUntilMs > 0 ? 1 : 0));
+        metrics.gauge("push_order_instance_ejections", "outlier ejections per order instance since start",
+                () -> perInstance(i -> i.ejectionsTotal.get()));
+    }
+
+    private Map<String, Number> perInstance(Function<Instance, Number> f) {
+        Map<String, Number> out = new LinkedHashMap<>();
+        for (Instance i : instances) {
+            out.put("instance=\"" + i.baseUrl + "\"", f.apply(i));
+        }
+        return out;
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    /** 包一层响应式调用：订阅时选实例，把它的 baseUrl 交给 call，结束时记耗时/失败；熔断全开时 OpenException */
+    public <T> Mono<T> call(Function<String, Mono<T>> call) {
+        return call(0, call);
+    }
+
+    /** 同上，deadlineMs 是这次调用的截止时间（X-Deadline），过了截止时间的失败不算实例的 */
+    public <T> Mono<T> call(long deadlineMs, Function<String, Mono<T>> call) {
+        return Mono.defer(() -> {
+            Lease lease = acquire(deadlineMs);
+            return call.apply(lease.inst.baseUrl)
+                    .doOnSuccess(v -> finish(lease, null, false))
+                    .doOnError(e -> finish(lease, e, false))
+                    .doOnCancel(() -> finish(lease, null, true));
+        });
+    }
+
+    /** 同步调用，在当前线程上做 */
+    public <T> T execute(Call<T> call) throws Exception {
+        return execute(0, call);
+    }
+
+    /** 同上，带截止时间 */
+    public <T> T execute(long deadlineMs, Call<T> call) throws Exception {
+        Lease lease = acquire(deadlineMs);
+        try {
+            T v = call.call(lease.inst.baseUrl);
+            finish(lease, null, false);
+            return v;
+        } catch (Exception e) {
+            finish(lease, e, false);
+            throw e;
+        }
+    }
+
+    /** 熔断全开（没有哪个实例能放行）时返回要抛的异常，否则 null；用来在切线程、排队之前就失败 */
+    public OrderCircuitBreaker.OpenException openException() {
+        if (!breaker.isEnabled()) return null;
+        long now = System.currentTimeMillis();
+        for (Instance i : instances) {
+            if (i.route.permits(now)) return null;
+        }
+        return breaker.reject(names());
+    }
+
+    private String names() {
+        if (instances.size() == 1) return instances.get(0).baseUrl;
+        List<String> urls = new ArrayList<>();
+        for (Instance i : instances) urls.add(i.baseUrl);
+        return urls.toString();
+    }
+
+    private Lease acquire(long deadlineMs) {
+        long now = System.currentTimeMillis();
+        if (instances.size() == 1) {
+            Instance only = instances.get(0);
+            long ticket = only.route.tryAcquire(now);
+            if (ticket < 0) throw breaker.reject(only.baseUrl);
+            return lease(only, ticket, deadlineMs);
+        }
+        List<Instance> candidates = candidates(now);
+        while (!candidates.isEmpty()) {
+            Instance inst = choose(candidates);
+            long ticket = inst.route.tryAcquire(now);
+            if (ticket >= 0) return lease(inst, ticket, deadlineMs);
+            // 半开的探测名额刚被别的请求拿走
+            candidates.remove(inst);
+        }
+        throw breaker.reject(names());
+    }
+
+    private static Lease lease(Instance inst, long ticket, long deadlineMs) {
+        inst.outstanding.incrementAndGet();
+        inst.requests.incrementAndGet();
+        return new Lease(inst, ticket, deadlineMs);
+    }
+
+    // 没被摘、熔断放行的；都被摘了就不看摘除，只看熔断
+    private List<Instance> candidates(long now) {
+        List<Instance> live = new ArrayList<>(instances.size());
+        for (Instance i : instances) {
+            if (available(i, now) && i.route.permits(now)) live.add(i);
+        }
+        if (live.isEmpty()) {
+            for (Instance i : instances) {
+                if (i.route.permits(now)) live.add(i);
+            }
+        }
+        return live;
+    }
+
+    private Instance choose(List<Instance> live) {
+        int size = live.size();
+        if (size == 1) return live.get(0);
+
+        String strategy = bp.getStrategy();
+        if (ROUND_ROBIN.equalsIgnoreCase(strategy)) {
+            return live.get(Math.floorMod(next.getAndIncrement(), size));
+        }
+        if (LEAST.equalsIgnoreCase(strategy)) {
+            // 从轮询位置开始找，在途一样多的不总落到第一个
+            int from = Math.floorMod(next.getAndIncrement(), size);
+            Instance best = null;
+            for (int k = 0; k < size; k++) {
+                Instance i = live.get((from + k) % size);
+                if (best == null || i.outstanding.get() < best.outstanding.get()) best = i;
+            }
+            return best;
+        }
+        // p2c
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int a = rnd.nextInt(size);
+        int b = rnd.nextInt(size - 1);
+        if (b >= a) b++;
+        Instance ia = live.get(a);
+        Instance ib = live.get(b);
+        double mean = meanLatency(null);
+        long nowNanos = System.nanoTime();
+        return cost(ia, mean, nowNanos) <= cost(ib, mean, nowNanos) ? ia : ib;
+    }
+
+    private double cost(Instance i, double mean, long nowNanos) {
+        double latency;
+        if (i.ewmaNanos == 0) {
+            latency = mean;
+        } else {
+            // 好久没样本的往均值回落
+            double idle = nowNanos - i.lastSampleNanos;
+            double decay = Math.exp(-idle / Math.max(1, TimeUnit.MILLISECONDS.toNanos(bp.getIdleDecayMs())));
+            latency = mean + (i.ewmaNanos - mean) * decay;
+        }
+        return Math.max(1, latency) * (i.outstanding.get() + 1);
+    }
+
+    /** 有样本、没被摘的实例的 EWMA 均值，except 不算在内；都没有样本时为 0 */
+    private double meanLatency(Instance except) {
+        double sum = 0;
+        int count = 0;
+        for (Instance i : instances) {
+            if (i == except || i.ejectedUntilMs > 0) continue;
+            double e = i.ewmaNanos;
+            if (e > 0) {
+                sum += e;
+                count++;
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    // 摘除到期的在这里放回来，EWMA 和失败计数清零重新攒
+    private boolean available(Instance i, long now) {
+        long until = i.ejectedUntilMs;
+        if (until == 0) return true;
+        if (now < until) return false;
+        synchronized (this) {
+            if (i.ejectedUntilMs == 0) return true;
+            i.ejectedUntilMs = 0;
+        }
+        synchronized (i) {
+            i.ewmaNanos = 0;
+            i.samples = 0;
+            i.consecutiveFailures = 0;
+        }
+        log.info("ORDER_LB return instance={}", i.baseUrl);
+        return true;
+    }
+
+    private void finish(Lease lease, Throwable e, boolean cancelled) {
+        if (!lease.done.compareAndSet(false, true)) return;
+        Instance inst = lease.inst;
+        inst.outstanding.decrementAndGet();
+        long now = System.nanoTime();
+        long rtt = now - lease.startNanos;
+        // 跟实例无关的失败（4xx、截止时间到了）和被取消的不算样本，熔断窗口也不计
+        boolean failure = e != null && isInstanceFailure(e) && !isDeadlineBound(e, lease.deadlineMs);
+        boolean ignored = cancelled || (e != null && !failure);
+        inst.route.onResult(lease.ticket, rtt, failure, ignored);
+        if (ignored) return;
+
+        String reason = null;
+        synchronized (inst) {
+            inst.ewmaNanos = inst.samples == 0 ? rtt : inst.ewmaNanos + bp.getEwmaAlpha() * (rtt - inst.ewmaNanos);
+            inst.lastSampleNanos = now;
+            inst.samples++;
+            if (failure) {
+                inst.failures.incrementAndGet();
+                inst.consecutiveFailures++;
+                if (bp.getConsecutiveFailures() > 0 && inst.consecutiveFailures >= bp.getConsecutiveFailures()) {
+                    reason = "consecutiveFailures=" + inst.consecutiveFailures + " err=" + e;
+                }
+            } else {
+                inst.consecutiveFailures = 0;
+                if (bp.getLatencyFactor() > 0 && inst.samples >= bp.getMinSamples()) {
+                    double others = meanLatency(inst);
+                    if (others > 0 && inst.ewmaNanos > bp.getLatencyFactor() * others) {
+                        reason = String.format("latencyMs=%.1f othersMs=%.1f", inst.ewmaNanos / 1e6, others / 1e6);
+                    }
+                }
+            }
+        }
+        if (reason != null) eject(inst, reason);
+    }
+
+    private synchronized void eject(Instance inst, String reason) {
+        int n = instances.size();
+        if (n == 1 || inst.ejectedUntilMs > 0) return;
+        int ejected = 0;
+        for (Instance i : instances) {
+            if (i.ejectedUntilMs > 0) ejected++;
+        }
+        int allowed = Math.max(1, n * bp.getMaxEjectionPercent() / 100);
+        if (ejected >= allowed) return;
+
+        long now = System.currentTimeMillis();
+        // 上次被摘已经过去很久的，从头算倍数
+        if (now - inst.lastEjectedMs > bp.getMaxEjectionMs()) inst.ejections = 0;
+        inst.ejections++;
+        long forMs = Math.min(bp.getMaxEjectionMs(), bp.getBaseEjectionMs() * inst.ejections);
+        inst.lastEjectedMs = now;
+        inst.ejectedUntilMs = now + forMs;
+        inst.ejectionsTotal.incrementAndGet();
+        synchronized (inst) {
+            inst.consecutiveFailures = 0;
+        }
+        log.warn("ORDER_LB eject instance={} forMs={} {}", inst.baseUrl, forMs, reason);
+    }
+
+    /**
+     * 失败是不是请求自己的截止时间用完造成的：调用链上有 Deadline.ExceededException、order 回 504（它按 X-Deadline 停下来），
+     * 或者结束时已经过了截止时间（超时被压到了剩余预算）
+     */
+    static boolean isDeadlineBound(Throwable e, long deadlineMs) {
+        for (Throwable c = e; c != null; c = c.getCause()) {
+            if (c instanceof Deadline.ExceededException) return true;
+        }
+        if (e instanceof WebClientResponseException
+                && ((WebClientResponseException) e).getRawStatusCode() == GATEWAY_TIMEOUT) return true;
+        if (e instanceof HttpStatusCodeException
+                && ((HttpStatusCodeException) e).getRawStatusCode() == GATEWAY_TIMEOUT) return true;
+        return deadlineMs > 0 && Deadline.remainingMs(deadlineMs) <= 0;
+    }
+
+    static boolean isInstanceFailure(Throwable e) {
+        // 本地连接池取不到连接是 push 自己的容量问题，不怪实例
+        for (Throwable c = e; c != null; c = c.getCause()) {
+            if (c instanceof ConnectionPoolTimeoutException) return false;
+            String name = c.getClass().getSimpleName();
+            if (name.equals("PoolAcquireTimeoutException") || name.equals("PoolAcquirePendingLimitException")) return false;
+        }
+        if (e instanceof WebClientResponseException) {
+            return ((WebClientResponseException) e).getRawStatusCode() >= 500;
+        }
+        if (e instanceof HttpStatusCodeException) {
+            return ((HttpStatusCodeException) e).getRawStatusCode() >= 500;
+        }
+        return e instanceof IOException
+                || e instanceof TimeoutException
+                || e instanceof ReadTimeoutException
+                || e instanceof ResourceAccessException;
+    }
+
+    /** 各实例 [outstanding, latencyMs, requests, failures, ejected(0/1), ejectionsTotal]，requests/failures 为区间值 */
+    public Map<String, long[]> drainStats() {
+        Map<String, long[]> out = new LinkedHashMap<>();
+        for (Instance i : instances) {
+            out.put(i.baseUrl, new long[]{i.outstanding.get(), TimeUnit.NANOSECONDS.toMillis((long) i.ewmaNanos),
+                    i.requests.getAndSet(0), i.failures.getAndSet(0), i.ejectedUntilMs > 0 ? 1 : 0,
+                    i.ejectionsTotal.get()});
+        }
+        return out;
+    }
+}
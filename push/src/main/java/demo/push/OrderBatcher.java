@@ -0,0 +1,201 @@
+package demo.push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.UnicastProcessor;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * push.mode=batch 用的微批器：请求先进队列，攒够 maxItems 或等满 maxWaitMs 就合成一次
+ * POST /orders/batch（WebClient，非阻塞），再按下标把结果分发回各自等待的 Mono。
+ * 用几毫秒的攒批延迟换更少的 order 连接和更少的单次请求开销。
+ * maxConcurrentBatches 个批次都在途时，新攒好的批次在 onBackpressureBuffer 里排队，不会让 bufferTimeout
+ * 因为下游不要数据而报 OverflowException 把整条流水线弄死；流水线万一结束，还没结果的请求全部失败，不会一直挂着。
+ */
+@Component
+public class OrderBatcher {
+    private static final Logger log = LoggerFactory.getLogger(OrderBatcher.class);
+
+    private static final ParameterizedTypeReference<List<Map<String, Object>>> BATCH_RESP =
+            new ParameterizedTypeReference<List<Map<String, Object>>>() {};
+
+    private final PushProperties props;
+    private final WebClient webClient;
+    private final OrderBalancer orderBalancer;
+
+    private final FluxSink<Pending> sink;
+    private final Disposable pipeline;
+    // 已提交、还没拿到结果的请求；流水线结束时统一失败
+    private final Set<Pending> outstanding = ConcurrentHashMap.newKeySet();
+    private volatile Throwable terminated;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    public OrderBatcher(PushProperties props, WebClient webClient, OrderBalancer orderBalancer) {
+        this.props = props;
+        this.webClient = webClient;
+        this.orderBalancer = orderBalancer;
+
+        PushProperties.BatchProps bp = props.getBatch();
+        UnicastProcessor<Pending> queue = UnicastProcessor.create();
+        this.sink = queue.sink();
+        this.pipeline = queue
+                .bufferTimeout(Math.max(1, bp.getMaxItems()), Duration.ofMillis(Math.max(1, bp.getMaxWaitMs())))
+                .onBackpressureBuffer()
+                .flatMap(this::send, Math.max(1, bp.getMaxConcurrentBatches()))
+                .subscribe(null, e -> {
+                    log.error("ORDER_BATCH pipeline failed err={}", e.toString());
+                    terminate(e);
+                }, () -> terminate(new IllegalStateException("order batcher stopped")));
+        log.info("ORDER_BATCH init maxItems={} maxWaitMs={} maxConcurrentBatches={}",
+                bp.getMaxItems(), bp.getMaxWaitMs(), bp.getMaxConcurrentBatches());
+    }
+
+    /** deadlineMs 是 X-Deadline（0 表示不限）：攒批期间过期的条目不再发给 order */
+    public Mono<Map<String, Object>> submit(Map<String, Object> body, long deadlineMs) {
+        return Mono.create(s -> {
+            Pending p = new Pending(body, deadlineMs, s);
+            // 调用方已经不等了（超时/断开）：攒批时跳过，不再发给 order
+            s.onCancel(() -> {
+                p.cancelled = true;
+                outstanding.remove(p);
+            });
+            outstanding.add(p);
+            Throwable dead = terminated;
+            if (dead != null) {
+                p.error(dead);
+                return;
+            }
+            sink.next(p);
+        });
+    }
+
+    private void terminate(Throwable e) {
+        terminated = e;
+        if (!outstanding.isEmpty()) {
+            log.warn("ORDER_BATCH failing {} pending orders err={}", outstanding.size(), e.toString());
+        }
+        for (Pending p : outstanding) {
+            p.error(e);
+        }
+    }
+
+    private Mono<Void> send(List<Pending> all) {
+        // 过期的直接失败；整批的截止时间取剩下条目里最晚的那个（0 表示有条目不限）
+        List<Pending> batch = new ArrayList<>(all.size());
+        long batchDeadline = -1;
+        for (Pending p : all) {
+            if (p.cancelled) continue;
+            if (Deadline.remainingMs(p.deadlineMs) <= 0) {
+                p.error(new Deadline.ExceededException(p.deadlineMs));
+                continue;
+            }
+            batch.add(p);
+            batchDeadline = p.deadlineMs <= 0 || batchDeadline == 0 ? 0 : Math.max(batchDeadline, p.deadlineMs);
+        }
+        if (batch.isEmpty()) return Mono.empty();
+        final long deadlineMs = batchDeadline;
+
+        batches.incrementAndGet();
+        items.addAndGet(batch.size());
+        maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+
+        List<Map<String, Object>> bodies = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            bodies.add(p.body);
+        }
+
+        // 一批整个发给一个实例
+        return orderBalancer.call(deadlineMs, baseUrl -> webClient.post()
+                        .uri(baseUrl + "/orders/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .headers(h -> {
+                            if (deadlineMs > 0) h.set(Deadline.HEADER, Long.toString(deadlineMs));
+                        })
+                        .bodyValue(bodies)
+                        .retrieve()
+                        .bodyToMono(BATCH_RESP)
+                        .timeout(Duration.ofMillis(Math.min(TimeUnit.SECONDS.toMillis(props.getOrderTimeoutSeconds()),
+                                Deadline.remainingMs(deadlineMs)))))
+                .doOnNext(resps -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (i < resps.size()) {
+                            batch.get(i).success(resps.get(i));
+                        } else {
+                            batch.get(i).error(new IllegalStateException(
+                                    "order batch returned " + resps.size() + " results for " + batch.size() + " orders"));
+                        }
+                    }
+                })
+                .doOnError(e -> {
+                    // 整批过了截止时间（order 回 504 或本地超时被压到剩余预算）：每条按截止时间失败，
+                    // PushController 回 900003，而不是当成 order 故障回 500
+                    if (OrderBalancer.isDeadlineBound(e, deadlineMs)) {
+                        log.warn("ORDER_BATCH deadline size={} err={}", batch.size(), e.toString());
+                        for (Pending p : batch) {
+                            p.error(new Deadline.ExceededException(p.deadlineMs));
+                        }
+                        return;
+                    }
+                    log.error("ORDER_BATCH fail size={} err={}", batch.size(), e.toString());
+                    for (Pending p : batch) {
+                        p.error(e);
+                    }
+                })
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    /** 取走区间统计：[batches, items, maxBatchSize] */
+    public long[] drainStats() {
+        return new long[]{batches.getAndSet(0), items.getAndSet(0), maxBatchSize.getAndSet(0)};
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pipeline.dispose();
+        terminate(new IllegalStateException("order batcher stopped"));
+    }
+
+    private final class Pending {
+        final Map<String, Object> body;
+        final long deadlineMs;
+        final MonoSink<Map<String, Object>> sink;
+        volatile boolean cancelled;
+
+        Pending(Map<String, Object> body, long deadlineMs, MonoSink<Map<String, Object>> sink) {
+            this.body = body;
+            this.deadlineMs = deadlineMs;
+            this.sink = sink;
+        }
+
+        void success(Map<String, Object> resp) {
+            outstanding.remove(this);
+            sink.success(resp);
+        }
+
+        void error(Throwable e) {
+            outstanding.remove(this);
+            sink.error(e);
+        }
+    }
+}
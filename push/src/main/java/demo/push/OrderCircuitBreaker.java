@@ -0,0 +1,263 @@
+package demo.push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 调 order 的熔断（push.breaker），每个 order 实例（route）一个，由 OrderBalancer 在选实例时用，所有模式都经过它：
+ * - CLOSED：最近 windowSize 次调用（计数滑动窗口）里失败率 ≥ failureRateThreshold% 或慢调用率 ≥ slowCallRateThreshold%
+ *   （至少 minimumCalls 次才算）就 OPEN；失败 = 连不上、超时、5xx，慢 = 耗时超过 slowCallDurationMs
+ * - OPEN：不再发给这个实例，所有实例都 OPEN 时直接 OpenException（PushController 返回 retCode=900006），
+ *   不建连接、不占线程等超时；waitDurationMs 后转 HALF_OPEN
+ * - HALF_OPEN：只放 permittedHalfOpenCalls 个探测请求，全部回来后按同样的阈值决定 CLOSED 还是再 OPEN
+ * 跟实例无关的结果（4xx、本地连接池取不到连接、被取消）不计入窗口；截止时间用完造成的超时、
+ * Deadline.ExceededException、order 回的 504 也不计（判定跟 OrderBalancer 摘除用的同一个），
+ * 否则压测时请求预算不够就会把健康的实例熔断掉。
+ */
+@Component
+public class OrderCircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(OrderCircuitBreaker.class);
+
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    private static final String[] STATE_NAMES = {"CLOSED", "OPEN", "HALF_OPEN"};
+
+    /** 熔断打开时的快速失败 */
+    public static class OpenException extends RuntimeException {
+        OpenException(String route) {
+            super("order circuit open: " + route, null, false, false);
+        }
+    }
+
+    /** 一个 order 实例的熔断器；所有状态在 synchronized(this) 里改 */
+    public final class Route {
+        final String name;
+        private volatile int state = CLOSED;
+        // 每次状态变化 +1，旧状态下放进来的调用结果不再计入
+        private long generation;
+        private long openUntilMs;
+
+        // CLOSED 的计数滑动窗口：bit0 失败、bit1 慢
+        private final byte[] window;
+        private int windowPos;
+        private int recorded;
+        private int windowFailures;
+        private int windowSlow;
+
+        // HALF_OPEN 的探测
+        private int probesInFlight;
+        private int probesDone;
+        private int probeFailures;
+        private int probeSlow;
+
+        private final AtomicLong[] transitions = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+
+        Route(String name) {
+            this.name = name;
+            this.window = new byte[Math.max(1, props().getWindowSize())];
+        }
+
+        public int state() {
+            return state;
+        }
+
+        /** 现在能不能放一个调用进来（不占名额），选实例时用来过滤 */
+        public synchronized boolean permits(long now) {
+            if (!props().isEnabled()) return true;
+            if (state == OPEN) return now >= openUntilMs;
+            if (state == HALF_OPEN) return probesInFlight < probes();
+            return true;
+        }
+
+        /** 放一个调用进来，返回凭证（结果回来时交回）；不放返回 -1 */
+        public synchronized long tryAcquire(long now) {
+            if (!props().isEnabled()) return 0;
+            if (state == OPEN) {
+                if (now < openUntilMs) return -1;
+                transition(HALF_OPEN, "waitDurationMs elapsed");
+            }
+            if (state == HALF_OPEN) {
+                if (probesInFlight >= probes()) return -1;
+                probesInFlight++;
+            }
+            return generation;
+        }
+
+        /** 调用结束；ignored 的（跟实例无关）只交回探测名额 */
+        public synchronized void onResult(long ticket, long durationNanos, boolean failure, boolean ignored) {
+            if (!props().isEnabled() || ticket != generation) return;
+            PushProperties.BreakerProps b = props();
+            boolean slow = !failure && durationNanos > TimeUnit.MILLISECONDS.toNanos(b.getSlowCallDurationMs());
+            if (state == HALF_OPEN) {
+                probesInFlight--;
+                if (ignored) return;
+                probesDone++;
+                if (failure) probeFailures++;
+                if (slow) probeSlow++;
+                if (probesDone >= probes()) {
+                    if (tripped(probesDone, probeFailures, probeSlow)) {
+                        transition(OPEN, rates("probe", probesDone, probeFailures, probeSlow));
+                    } else {
+                        transition(CLOSED, rates("probe", probesDone, probeFailures, probeSlow));
+                    }
+                }
+                return;
+            }
+            if (state != CLOSED || ignored) return;
+            byte outcome = (byte) ((failure ? 1 : 0) | (slow ? 2 : 0));
+            if (recorded == window.length) {
+                byte old = window[windowPos];
+                if ((old & 1) != 0) windowFailures--;
+                if ((old & 2) != 0) windowSlow--;
+            } else {
+                recorded++;
+            }
+            window[windowPos] = outcome;
+            windowPos = (windowPos + 1) % window.length;
+            if (failure) windowFailures++;
+            if (slow) windowSlow++;
+            if (recorded >= Math.max(1, b.getMinimumCalls()) && tripped(recorded, windowFailures, windowSlow)) {
+                transition(OPEN, rates("window", recorded, windowFailures, windowSlow));
+            }
+        }
+
+        private boolean tripped(int calls, int failures, int slow) {
+            PushProperties.BreakerProps b = props();
+            return failures * 100.0 >= b.getFailureRateThreshold() * calls
+                    || slow * 100.0 >= b.getSlowCallRateThreshold() * calls;
+        }
+
+        private String rates(String over, int calls, int failures, int slow) {
+            return String.format("%s calls=%d failureRate=%.0f%% slowRate=%.0f%%",
+                    over, calls, failures * 100.0 / calls, slow * 100.0 / calls);
+        }
+
+        private void transition(int to, String why) {
+            int from = state;
+            state = to;
+            generation++;
+            transitions[to].incrementAndGet();
+            if (to == OPEN) {
+                openUntilMs = System.currentTimeMillis() + props().getWaitDurationMs();
+            }
+            if (to == CLOSED || to == HALF_OPEN) {
+                recorded = 0;
+                windowPos = 0;
+                windowFailures = 0;
+                windowSlow = 0;
+            }
+            probesInFlight = 0;
+            probesDone = 0;
+            probeFailures = 0;
+            probeSlow = 0;
+            if (to == OPEN) {
+                log.warn("ORDER_BREAKER route={} {} -> {} ({}) waitMs={}",
+                        name, STATE_NAMES[from], STATE_NAMES[to], why, props().getWaitDurationMs());
+            } else {
+                log.info("ORDER_BREAKER route={} {} -> {} ({})", name, STATE_NAMES[from], STATE_NAMES[to], why);
+            }
+        }
+
+        /** [state, calls, failureRate%, slowRate%, toOpen, toHalfOpen, toClosed]，转换次数为累计值 */
+        public synchronized long[] stats() {
+            return new long[]{state, recorded,
+                    recorded == 0 ? 0 : windowFailures * 100L / recorded,
+                    recorded == 0 ? 0 : windowSlow * 100L / recorded,
+                    transitions[OPEN].get(), transitions[HALF_OPEN].get(), transitions[CLOSED].get()};
+        }
+    }
+
+    private final PushProperties props;
+    private final List<Route> routes = new CopyOnWriteArrayList<>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public OrderCircuitBreaker(PushProperties props, PushMetrics metrics) {
+        this.props = props;
+        PushProperties.BreakerProps b = props.getBreaker();
+        if (b.isEnabled()) {
+            log.info("ORDER_BREAKER init windowSize={} minimumCalls={} failureRateThreshold={} slowCallDurationMs={} slowCallRateThreshold={} waitDurationMs={} permittedHalfOpenCalls={}",
+                    b.getWindowSize(), b.getMinimumCalls(), b.getFailureRateThreshold(), b.getSlowCallDurationMs(),
+                    b.getSlowCallRateThreshold(), b.getWaitDurationMs(), probes());
+        }
+
+        metrics.gauge("push_order_breaker_state", "order circuit breaker state per route: 0 closed, 1 open, 2 half-open",
+                () -> perRoute(r -> r.state));
+        metrics.gauge("push_order_breaker_rejected", "order calls fast-failed by open circuits since start",
+                () -> Collections.singletonMap("", rejected.get()));
+        metrics.gauge("push_order_breaker_transitions", "order circuit breaker transitions since start", () -> {
+            Map<String, Long> out = new LinkedHashMap<>();
+            for (Route r : routes) {
+                for (int s = 0; s < STATE_NAMES.length; s++) {
+                    out.put("route=\"" + r.name + "\",to=\"" + STATE_NAMES[s].toLowerCase() + "\"",
+                            r.transitions[s].get());
+                }
+            }
+            return out;
+        });
+    }
+
+    private Map<String, Number> perRoute(Function<Route, Number> f) {
+        Map<String, Number> out = new LinkedHashMap<>();
+        for (Route r : routes) {
+            out.put("route=\"" + r.name + "\"", f.apply(r));
+        }
+        return out;
+    }
+
+    private PushProperties.BreakerProps props() {
+        return props.getBreaker();
+    }
+
+    private int probes() {
+        return Math.max(1, props.getBreaker().getPermittedHalfOpenCalls());
+    }
+
+    public boolean isEnabled() {
+        return props.getBreaker().isEnabled();
+    }
+
+    /** 一个 order 实例的熔断器（同名共用一个） */
+    public synchronized Route route(String name) {
+        for (Route r : routes) {
+            if (r.name.equals(name)) return r;
+        }
+        Route r = new Route(name);
+        routes.add(r);
+        return r;
+    }
+
+    /** 没有哪个实例能放行：记一次快速失败 */
+    OpenException reject(String routes) {
+        rejected.incrementAndGet();
+        return new OpenException(routes);
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    public static String stateName(long state) {
+        return STATE_NAMES[(int) state];
+    }
+
+    /** 各 route 的 stats()，按创建顺序 */
+    public Map<String, long[]> stats() {
+        Map<String, long[]> out = new LinkedHashMap<>();
+        for (Route r : routes) {
+            out.put(r.name, r.stats());
+        }
+        return out;
+    }
+}
@@ -1,32 +1,51 @@
 package demo.push;
 
+import io.netty.channel.ChannelOption;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import org.apache.http.ConnectionReuseStrategy;
 import org.apache.http.HeaderElement;
 import org.apache.http.HeaderElementIterator;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
 
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
 public class OrderClients {
     private static final Logger log = LoggerFactory.getLogger(OrderClients.class);
 
+    // loopThreads>0 时 WebClient 自己的 event loop，关闭时释放
+    private volatile LoopResources orderLoops;
+
     @Bean
     public PoolingHttpClientConnectionManager poolingConnectionManager(PushProperties props) {
         PushProperties.HttpClientProps hp = props.getHttpclient();
@@ -49,15 +68,28 @@ public class OrderClients {
                 .setConnectionRequestTimeout(hp.getConnectionRequestTimeoutMs())
                 .build();
 
-        ConnectionReuseStrategy reuseStrategy = hp.isConnectionReuse()
+        return HttpClients.custom()
+                .setConnectionManager(cm)
+                .setDefaultRequestConfig(requestConfig)
+                .setConnectionReuseStrategy(reuseStrategy(hp))
+                .setKeepAliveStrategy(keepAliveStrategy(hp))
+                .evictIdleConnections(hp.getKeepAliveSeconds(), TimeUnit.SECONDS)
+                .build();
+    }
+
+    // 同步（RestTemplate）和异步（asyncapache）两个客户端共用的连接复用/keep-alive 规则
+    private static ConnectionReuseStrategy reuseStrategy(PushProperties.HttpClientProps hp) {
+        return hp.isConnectionReuse()
                 ? org.apache.http.impl.DefaultConnectionReuseStrategy.INSTANCE
                 : new ConnectionReuseStrategy() {
             @Override public boolean keepAlive(HttpResponse response, org.apache.http.protocol.HttpContext context) {
                 return false;
             }
         };
+    }
 
-        ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(PushProperties.HttpClientProps hp) {
+        return new ConnectionKeepAliveStrategy() {
             @Override
             public long getKeepAliveDuration(HttpResponse response, org.apache.http.protocol.HttpContext context) {
                 // 优先读服务端 Keep-Alive: timeout=xx
@@ -77,35 +109,134 @@ public class OrderClients {
                 return hp.getKeepAliveSeconds() * 1000L;
             }
         };
+    }
 
-        return HttpClients.custom()
-                .setConnectionManager(cm)
+    /**
+     * asyncapache 模式的 NIO 连接池：跟 RestTemplate 的池子各自独立，但用同一套 httpclient.* 上限，
+     * 在途请求不占线程，只占连接（I/O dispatcher 线程数 = httpclient.asyncIoThreads）
+     */
+    @Bean
+    public PoolingNHttpClientConnectionManager asyncConnectionManager(PushProperties props) throws IOReactorException {
+        PushProperties.HttpClientProps hp = props.getHttpclient();
+        int ioThreads = hp.getAsyncIoThreads() > 0 ? hp.getAsyncIoThreads() : Runtime.getRuntime().availableProcessors();
+
+        IOReactorConfig ioConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setConnectTimeout(hp.getConnectTimeoutMs())
+                .setSoTimeout(hp.getReadTimeoutMs())
+                .build();
+        AtomicInteger seq = new AtomicInteger();
+        DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor(ioConfig,
+                r -> new Thread(r, "push-async-io-" + seq.incrementAndGet()));
+
+        PoolingNHttpClientConnectionManager cm = new PoolingNHttpClientConnectionManager(ioReactor);
+        cm.setMaxTotal(hp.getMaxTotal());
+        cm.setDefaultMaxPerRoute(hp.getMaxPerRoute());
+        log.info("HTTP_ASYNC_POOL init maxTotal={} maxPerRoute={} ioThreads={}", hp.getMaxTotal(), hp.getMaxPerRoute(), ioThreads);
+        return cm;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public CloseableHttpAsyncClient apacheAsyncClient(PushProperties props, PoolingNHttpClientConnectionManager asyncConnectionManager) {
+        PushProperties.HttpClientProps hp = props.getHttpclient();
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(hp.getConnectTimeoutMs())
+                .setSocketTimeout(hp.getReadTimeoutMs())
+                .setConnectionRequestTimeout(hp.getConnectionRequestTimeoutMs())
+                .build();
+
+        return HttpAsyncClients.custom()
+                .setConnectionManager(asyncConnectionManager)
                 .setDefaultRequestConfig(requestConfig)
-                .setConnectionReuseStrategy(reuseStrategy)
-                .setKeepAliveStrategy(keepAliveStrategy)
-                .evictIdleConnections(hp.getKeepAliveSeconds(), TimeUnit.SECONDS)
+                .setConnectionReuseStrategy(reuseStrategy(hp))
+                .setKeepAliveStrategy(keepAliveStrategy(hp))
                 .build();
     }
 
     @Bean
-    public RestTemplate restTemplate(CloseableHttpClient httpClient) {
-        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+    public RestTemplate restTemplate(CloseableHttpClient httpClient, PushProperties props) {
+        PushProperties.HttpClientProps hp = props.getHttpclient();
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient) {
+            // 调用线程上有截止时间（Deadline.callWithin）时，本次请求的读超时/取连接超时不超过剩余预算
+            @Override
+            protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+                long deadlineMs = Deadline.current();
+                if (deadlineMs <= 0) return null;
+                int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Deadline.remainingMs(deadlineMs)));
+                HttpClientContext context = HttpClientContext.create();
+                context.setRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(Math.min(hp.getConnectTimeoutMs(), remaining))
+                        .setSocketTimeout(Math.min(hp.getReadTimeoutMs(), remaining))
+                        .setConnectionRequestTimeout(Math.min(hp.getConnectionRequestTimeoutMs(), remaining))
+                        .build());
+                return context;
+            }
+        };
         return new RestTemplate(factory);
     }
 
+    /**
+     * WebClient 的连接池，对应上面 Apache 的 PoolingHttpClientConnectionManager：
+     * fixed = 最多 maxConnections 条，取不到的排队（最多 pendingAcquireMaxCount 个、等 pendingAcquireTimeoutMs）；
+     * elastic = reactor-netty 0.9 默认的不限连接数
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider orderConnectionProvider(PushProperties props) {
+        PushProperties.WebClientProps wp = props.getWebclient();
+        if ("elastic".equalsIgnoreCase(wp.getPool())) {
+            log.info("WEBCLIENT_POOL init pool=elastic loopThreads={}", wp.getLoopThreads());
+            // 跟 0.9 里 ConnectionProvider.elastic 的配置一样：连接数不限，取连接不排队
+            ConnectionProvider.Builder e = ConnectionProvider.builder("push-order")
+                    .maxConnections(Integer.MAX_VALUE)
+                    .pendingAcquireTimeout(Duration.ZERO)
+                    .pendingAcquireMaxCount(-1);
+            if (wp.getMaxIdleTimeMs() > 0) e.maxIdleTime(Duration.ofMillis(wp.getMaxIdleTimeMs()));
+            if (wp.getMaxLifeTimeMs() > 0) e.maxLifeTime(Duration.ofMillis(wp.getMaxLifeTimeMs()));
+            return e.build();
+        }
+        ConnectionProvider.Builder b = ConnectionProvider.builder("push-order")
+                .maxConnections(wp.getMaxConnections())
+                .pendingAcquireMaxCount(wp.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(Duration.ofMillis(wp.getPendingAcquireTimeoutMs()));
+        if (wp.getMaxIdleTimeMs() > 0) b.maxIdleTime(Duration.ofMillis(wp.getMaxIdleTimeMs()));
+        if (wp.getMaxLifeTimeMs() > 0) b.maxLifeTime(Duration.ofMillis(wp.getMaxLifeTimeMs()));
+        log.info("WEBCLIENT_POOL init pool=fixed maxConnections={} pendingAcquireMaxCount={} pendingAcquireTimeoutMs={} loopThreads={}",
+                wp.getMaxConnections(), wp.getPendingAcquireMaxCount(), wp.getPendingAcquireTimeoutMs(), wp.getLoopThreads());
+        return b.build();
+    }
+
     @Bean
-    public WebClient webClient(PushProperties props) {
+    public WebClient webClient(PushProperties props, ConnectionProvider orderConnectionProvider,
+                               WebClientPoolStats poolStats) {
+        PushProperties.WebClientProps wp = props.getWebclient();
         long timeoutSeconds = props.getOrderTimeoutSeconds();
 
+        // loopThreads>0：调 order 用自己的 event loop（线程名 push-order-client-*），不跟处理 /push 的 reactor-http 抢
+        LoopResources loops = wp.getLoopThreads() > 0
+                ? LoopResources.create("push-order-client", wp.getLoopThreads(), true)
+                : null;
+        orderLoops = loops;
+
         // Boot 2.2.5 reactor-netty 0.9.x：没有 responseTimeout(Duration)，用 ReadTimeoutHandler
-        HttpClient httpClient = HttpClient.create()
-                .tcpConfiguration(tcp -> tcp.doOnConnected(conn ->
-                        conn.addHandlerLast(new ReadTimeoutHandler(timeoutSeconds, TimeUnit.SECONDS))
-                ));
+        HttpClient httpClient = HttpClient.create(poolStats.instrument(orderConnectionProvider))
+                .tcpConfiguration(tcp -> {
+                    tcp = tcp.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, wp.getConnectTimeoutMs())
+                            .doOnConnected(conn ->
+                                    conn.addHandlerLast(new ReadTimeoutHandler(timeoutSeconds, TimeUnit.SECONDS)));
+                    return loops != null ? tcp.runOn(loops) : tcp;
+                });
+        httpClient = poolStats.instrument(httpClient);
 
+        // 不设 baseUrl：调用方用 OrderBalancer 选出来的实例拼绝对地址
         return WebClient.builder()
-                .baseUrl(props.getOrderBaseUrl())
                 .clientConnector(new org.springframework.http.client.reactive.ReactorClientHttpConnector(httpClient))
                 .build();
     }
+
+    @PreDestroy
+    public void disposeOrderLoops() {
+        LoopResources loops = orderLoops;
+        if (loops != null) loops.dispose();
+    }
 }
@@ -0,0 +1,163 @@
+package demo.push;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * webclient 模式的对冲请求（hedged request）：先发一次，过了 hedgeDelay 还没回来就再发一次同样的请求，
+ * 谁先成功用谁，另一个取消（WebClient 取消 = 关掉那条连接）；一边失败了接着等另一边（主请求很快失败时对冲照样按时发出），
+ * 两边都失败才失败，错误取先失败的那个。
+ * - hedgeDelay：固定 delayMs，或者（delayMs<=0 时）最近 window 次 order 耗时的第 percentile 分位，每秒重算一次
+ *   （记的是实际拿到结果的耗时，被对冲截短的慢请求会让分位数偏小，多出来的对冲由预算兜住）
+ * - 预算：每个请求攒 budgetPercent% 个对冲额度，发一次对冲花掉 1 个，额度不够就不对冲，
+ *   所以额外的 order 压力最多 budgetPercent%，order 整体变慢时不会雪上加霜
+ * - 对冲的那次也是一个 order 调用，同样经过 OrderLimiter 占名额；上限满了就不对冲（算 budget_denied）
+ */
+@Component
+public class OrderHedger {
+
+    private final PushProperties props;
+    private final OrderLimiter orderLimiter;
+
+    // 最近 window 次的耗时（纳秒），环形覆盖
+    private final AtomicLongArray recent;
+    private final AtomicInteger cursor = new AtomicInteger();
+    private volatile long hedgeDelayNanos;
+
+    // 对冲额度，单位：千分之一个
+    private static final long MILLI = 1000;
+    private final AtomicLong budgetMilli = new AtomicLong();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong denied = new AtomicLong();
+
+    public OrderHedger(PushProperties props, PushMetrics metrics, OrderLimiter orderLimiter) {
+        this.props = props;
+        this.orderLimiter = orderLimiter;
+        this.recent = new AtomicLongArray(Math.max(16, props.getHedge().getWindow()));
+        recomputeDelay();
+
+        metrics.gauge("push_hedge_delay_ms", "current hedge delay for webclient order calls",
+                () -> Collections.singletonMap("", TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos)));
+        metrics.gauge("push_hedge_requests", "webclient order calls, hedges sent, hedges that won, hedges denied by budget",
+                () -> {
+                    Map<String, Long> m = new LinkedHashMap<>();
+                    m.put("kind=\"calls\"", calls.get());
+                    m.put("kind=\"hedged\"", hedges.get());
+                    m.put("kind=\"hedge_won\"", hedgeWins.get());
+                    m.put("kind=\"budget_denied\"", denied.get());
+                    return m;
+                });
+    }
+
+    /** attempt 每调一次生成一个独立的 order 请求；没开启时只调一次 */
+    public <T> Mono<T> hedge(Supplier<Mono<T>> attempt) {
+        PushProperties.HedgeProps hp = props.getHedge();
+        if (!hp.isEnabled()) return attempt.get();
+
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            long cap = Math.max(1, hp.getMaxBudget()) * MILLI;
+            budgetMilli.getAndUpdate(b -> Math.min(cap, b + (long) (hp.getBudgetPercent() * MILLI / 100)));
+
+            final long start = System.nanoTime();
+            // 失败的一边先把错误记下、当成没结果，不让它抢在另一边成功之前结束整个请求
+            final AtomicReference<Throwable> firstError = new AtomicReference<>();
+            Mono<T> primary = attempt.get()
+                    .doOnSuccess(v -> record(System.nanoTime() - start))
+                    .onErrorResume(e -> {
+                        firstError.compareAndSet(null, e);
+                        return Mono.empty();
+                    });
+            Mono<T> second = Mono.delay(Duration.ofNanos(hedgeDelayNanos))
+                    .flatMap(x -> {
+                        if (!takeBudget()) {
+                            denied.incrementAndGet();
+                            return Mono.<T>empty();
+                        }
+                        // 抢到 limiter 名额才算发出了对冲
+                        return orderLimiter.wrap(Mono.defer(() -> {
+                                    hedges.incrementAndGet();
+                                    return attempt.get();
+                                }))
+                                .doOnSuccess(v -> {
+                                    hedgeWins.incrementAndGet();
+                                    record(System.nanoTime() - start);
+                                })
+                                .onErrorResume(OrderLimiter.LimitExceededException.class, e -> {
+                                    // 上限满了：不对冲，额度退回
+                                    budgetMilli.addAndGet(MILLI);
+                                    denied.incrementAndGet();
+                                    return Mono.empty();
+                                });
+                    })
+                    .onErrorResume(e -> {
+                        firstError.compareAndSet(null, e);
+                        return Mono.empty();
+                    });
+            // 先成功的赢，另一个被取消；两边都没结果时才报错
+            return Flux.merge(primary, second)
+                    .next()
+                    .switchIfEmpty(Mono.defer(() -> {
+                        Throwable e = firstError.get();
+                        return e == null ? Mono.<T>empty() : Mono.<T>error(e);
+                    }));
+        });
+    }
+
+    private boolean takeBudget() {
+        while (true) {
+            long b = budgetMilli.get();
+            if (b < MILLI) return false;
+            if (budgetMilli.compareAndSet(b, b - MILLI)) return true;
+        }
+    }
+
+    private void record(long nanos) {
+        int i = Math.floorMod(cursor.getAndIncrement(), recent.length());
+        recent.set(i, nanos);
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void recomputeDelay() {
+        PushProperties.HedgeProps hp = props.getHedge();
+        long minNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, hp.getMinDelayMs()));
+        if (hp.getDelayMs() > 0) {
+            hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hp.getDelayMs());
+            return;
+        }
+        int n = Math.min(cursor.get(), recent.length());
+        if (n < 20) {
+            // 样本太少，先用 orderTimeout 的一半，基本等于不对冲
+            hedgeDelayNanos = Math.max(minNanos, TimeUnit.SECONDS.toNanos(props.getOrderTimeoutSeconds()) / 2);
+            return;
+        }
+        long[] copy = new long[n];
+        for (int i = 0; i < n; i++) copy[i] = recent.get(i);
+        Arrays.sort(copy);
+        int idx = (int) Math.min(n - 1, Math.ceil(hp.getPercentile() / 100.0 * n) - 1);
+        hedgeDelayNanos = Math.max(minNanos, copy[Math.max(0, idx)]);
+    }
+
+    /** 累计值：[calls, hedged, hedgeWon, budgetDenied, delayMs] */
+    public long[] stats() {
+        return new long[]{calls.get(), hedges.get(), hedgeWins.get(), denied.get(),
+                TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos)};
+    }
+}
@@ -0,0 +1,153 @@
+package demo.push;
+
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import reactor.core.publisher.Mono;
+
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 调 order 的自适应并发上限（gradient 算法，思路同 Netflix concurrency-limits 的 Gradient2）：
+ * - longRtt：RTT 的长期指数平均（近似“没排队时”的 RTT）；shortRtt：本次样本
+ * - gradient = clamp(tolerance * longRtt / shortRtt, 0.5, 1.0)，order 变慢时 gradient < 1，上限跟着收缩
+ * - newLimit = limit * gradient + sqrt(limit)（留一点排队余量用来探测），再按 smoothing 平滑
+ * - 超时（reactor timeout、ReadTimeout、连接池/读超时（含 asyncapache 的 socket 超时）、offload 队列满）按 backoffRatio 直接乘性下调；
+ *   截止时间用完的（Deadline.ExceededException、order 回的 504、过了截止时间才结束或被外层取消，判定同 OrderBalancer）也算
+ * - 被取消的调用（对冲输了、客户端断开）没过截止时间时按已耗时记一个样本，不能因为没有结果就不计
+ * 在途数到了上限的请求不再排队，立刻失败（PushController 返回 retCode=900002），
+ * 接下来的请求耗时就能压在上游 4s 之内，order 变慢时整体有效吞吐反而更高。
+ */
+@Component
+public class OrderLimiter {
+
+    private final PushProperties props;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile double limit;
+    // 以下只在 synchronized(this) 里改
+    private double longRttNanos;
+    private long samples;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long lastRttNanos;
+
+    public OrderLimiter(PushProperties props, PushMetrics metrics) {
+        this.props = props;
+        this.limit = props.getLimiter().getInitialLimit();
+
+        metrics.gauge("push_order_limit", "current adaptive concurrency limit for order calls",
+                () -> Collections.singletonMap("", (int) limit));
+        metrics.gauge("push_order_limiter_inflight", "order calls admitted by the limiter and not finished",
+                () -> Collections.singletonMap("", inflight.get()));
+        metrics.gauge("push_order_limiter_rejected", "order calls shed by the limiter since start",
+                () -> Collections.singletonMap("", rejected.get()));
+    }
+
+    /** 上限满了时的快速失败 */
+    public static class LimitExceededException extends RuntimeException {
+        LimitExceededException(int limit) {
+            super("order concurrency limit " + limit + " reached", null, false, false);
+        }
+    }
+
+    /** 不带截止时间的 wrap */
+    public <T> Mono<T> wrap(Mono<T> call) {
+        return wrap(call, 0);
+    }
+
+    /**
+     * 包一层：订阅时抢名额（抢不到直接 LimitExceededException），结束时按结果更新上限。
+     * deadlineMs 是 X-Deadline（0 表示不限），用来区分截止时间用完和普通失败/取消。没开启时原样返回。
+     */
+    public <T> Mono<T> wrap(Mono<T> call, long deadlineMs) {
+        if (!props.getLimiter().isEnabled()) return call;
+        return Mono.defer(() -> {
+            int current = (int) limit;
+            int n;
+            do {
+                n = inflight.get();
+                if (n >= current) {
+                    rejected.incrementAndGet();
+                    return Mono.error(new LimitExceededException(current));
+                }
+            } while (!inflight.compareAndSet(n, n + 1));
+
+            final long start = System.nanoTime();
+            final int inflightAtStart = n + 1;
+            return call
+                    .doOnSuccess(v -> onSample(System.nanoTime() - start, inflightAtStart))
+                    .doOnError(e -> {
+                        if (isOverload(e, deadlineMs)) onDropped();
+                    })
+                    .doOnCancel(() -> {
+                        if (deadlineMs > 0 && Deadline.remainingMs(deadlineMs) <= 0) {
+                            onDropped();
+                        } else {
+                            onSample(System.nanoTime() - start, inflightAtStart);
+                        }
+                    })
+                    .doFinally(sig -> inflight.decrementAndGet());
+        });
+    }
+
+    private synchronized void onSample(long rttNanos, int inflightAtStart) {
+        PushProperties.LimiterProps lp = props.getLimiter();
+        lastRttNanos = rttNanos;
+        samples++;
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+            return;
+        }
+        double window = Math.max(1, lp.getLongWindow());
+        longRttNanos = longRttNanos + (rttNanos - longRttNanos) / Math.min(samples, window);
+        // 长期均值被拉得太高（比如 order 恢复了），往短期值靠，免得 gradient 一直卡在 1
+        if (longRttNanos / rttNanos > 2) {
+            longRttNanos = longRttNanos * 0.95;
+        }
+
+        // 在途远没到上限时（流量本身不大），样本说明不了上限够不够，不往上加
+        double cur = limit;
+        if (inflightAtStart < cur / 2) return;
+
+        double gradient = Math.max(0.5, Math.min(1.0, lp.getRttTolerance() * longRttNanos / rttNanos));
+        double newLimit = cur * gradient + Math.sqrt(cur);
+        newLimit = cur * (1 - lp.getSmoothing()) + newLimit * lp.getSmoothing();
+        limit = clamp(newLimit, lp);
+    }
+
+    private synchronized void onDropped() {
+        dropped.incrementAndGet();
+        limit = clamp(limit * props.getLimiter().getBackoffRatio(), props.getLimiter());
+    }
+
+    private static double clamp(double v, PushProperties.LimiterProps lp) {
+        return Math.max(lp.getMinLimit(), Math.min(lp.getMaxLimit(), v));
+    }
+
+    private static boolean isOverload(Throwable e, long deadlineMs) {
+        return OrderBalancer.isDeadlineBound(e, deadlineMs)
+                || e instanceof TimeoutException
+                || e instanceof ReadTimeoutException
+                || e instanceof ResourceAccessException
+                || e instanceof SocketTimeoutException
+                || e instanceof RejectedExecutionException;
+    }
+
+    /** [limit, inflight, rejected, dropped, lastRttMs, longRttMs]，rejected/dropped 为累计值 */
+    public long[] stats() {
+        long longRtt;
+        synchronized (this) {
+            longRtt = (long) longRttNanos;
+        }
+        return new long[]{(long) limit, inflight.get(), rejected.get(), dropped.get(),
+                TimeUnit.NANOSECONDS.toMillis(lastRttNanos), TimeUnit.NANOSECONDS.toMillis(longRtt)};
+    }
+}
@@ -0,0 +1,244 @@
+package demo.push;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.server.RequestPredicates;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * push.mode=passthrough：/push 不做 Map 反序列化/序列化，字节直通。
+ * - 请求体原样（同一个 DataBuffer）用 WebClient 转给 order，只用 Jackson 流式解析器扫出 reqId，扫到就停
+ * - order 的响应体不解析，原样拼进预编码好的应答模板（"orderResp": 后面直接跟 order 的字节）
+ * 其他模式一次请求要过 4 遍 Jackson（入参 → Map → order 请求体，order 响应 → Map → 应答），这里一遍都不用。
+ * 应答字段和顺序跟 PushController.wrapOk 一致（orderSource 恒为 order）。
+ * 不走 singleFlight 和对冲（两者都要把同一份请求/响应给多个订阅者，字节直通做不到），limiter 和截止时间照常。
+ */
+@Component
+public class PassthroughHandler {
+    private static final Logger log = LoggerFactory.getLogger(PassthroughHandler.class);
+
+    static final String MODE = "passthrough";
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    // 应答模板里固定的部分，启动时编码好
+    private static final byte[] OK_HEAD = ascii("{\"retCode\":\"" + PushController.RET_OK + "\",\"retMsg\":\"OK\",\"reqId\":");
+    private static final byte[] IN_THREAD = ascii(",\"pushMode\":\"" + MODE + "\",\"pushInThread\":");
+    private static final byte[] END_THREAD = ascii(",\"pushEndThread\":");
+    private static final byte[] COST = ascii(",\"pushCostMs\":");
+    private static final byte[] TS = ascii(",\"ts\":\"");
+    private static final byte[] ORDER_RESP = ascii("\",\"orderResp\":");
+    private static final byte[] TAIL = ascii(",\"orderSource\":\"order\"}");
+    private static final byte[] NULL = ascii("null");
+
+    private final PushProperties props;
+    private final WebClient webClient;
+    private final InflightGauges inflight;
+    private final OrderLimiter orderLimiter;
+    private final OrderBalancer orderBalancer;
+    private final ModeRouter modeRouter;
+
+    public PassthroughHandler(PushProperties props, WebClient webClient, InflightGauges inflight,
+                              OrderLimiter orderLimiter, OrderBalancer orderBalancer, ModeRouter modeRouter) {
+        this.props = props;
+        this.webClient = webClient;
+        this.inflight = inflight;
+        this.orderLimiter = orderLimiter;
+        this.orderBalancer = orderBalancer;
+        this.modeRouter = modeRouter;
+    }
+
+    // RouterFunction 排在注解控制器前面：本请求选中 passthrough（ModeRouter）时接管 POST /push，其他模式落到 PushController
+    @Bean
+    public RouterFunction<ServerResponse> passthroughRoute() {
+        return RouterFunctions.route(
+                RequestPredicates.POST("/push").and(req -> MODE.equals(modeRouter.resolve(req.exchange()))),
+                this::push);
+    }
+
+    Mono<ServerResponse> push(ServerRequest request) {
+        final long start = System.currentTimeMillis();
+        final String inThread = Thread.currentThread().getName();
+        final PushMetrics.Sample sample = PushMetrics.sample(request.exchange());
+        final boolean logged = sample == null || sample.isLogged();
+        if (sample != null) sample.setMode(MODE);
+        final long deadlineMs = props.getDeadline().isEnabled()
+                ? Deadline.parse(request.headers().asHttpHeaders().getFirst(Deadline.HEADER)) : 0;
+
+        return DataBufferUtils.join(request.bodyToFlux(DataBuffer.class))
+                .flatMap(in -> {
+                    final String reqId;
+                    try {
+                        reqId = readReqId(in);
+                    } catch (IOException e) {
+                        DataBufferUtils.release(in);
+                        return Mono.error(new ServerWebInputException("invalid JSON body: " + e.getMessage()));
+                    }
+                    if (logged) {
+                        log.info("PUSH_BIZ recv reqId={} mode={} thread={}", reqId, MODE, inThread);
+                    }
+
+                    long remainingMs = Deadline.remainingMs(deadlineMs);
+                    if (remainingMs <= 0) {
+                        DataBufferUtils.release(in);
+                        if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+                        if (logged) {
+                            log.warn("PUSH_BIZ expired reqId={} mode={} lateMs={}", reqId, MODE, -remainingMs);
+                        }
+                        return fail(reqId, start, inThread, PushController.RET_DEADLINE_EXCEEDED, "deadline exceeded");
+                    }
+
+                    // 请求体交给 WebClient 之后由它负责释放；没发出去（limiter 拒绝、取消）就自己释放
+                    final AtomicBoolean sent = new AtomicBoolean();
+                    Mono<DataBuffer> resp = orderLimiter.wrap(callOrder(in, sent, deadlineMs), deadlineMs)
+                            .doFinally(sig -> {
+                                if (sent.compareAndSet(false, true)) DataBufferUtils.release(in);
+                            });
+                    if (deadlineMs > 0) {
+                        resp = resp.timeout(Duration.ofMillis(remainingMs),
+                                Mono.defer(() -> Mono.error(new Deadline.ExceededException(deadlineMs))));
+                    }
+
+                    DataBufferFactory factory = request.exchange().getResponse().bufferFactory();
+                    return resp
+                            .switchIfEmpty(Mono.fromSupplier(() -> factory.wrap(NULL)))
+                            .flatMap(orderResp -> {
+                                if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_OK);
+                                long cost = System.currentTimeMillis() - start;
+                                if (logged) {
+                                    log.info("PUSH_BIZ ok reqId={} mode={} src=order costMs={} endThread={}",
+                                            reqId, MODE, cost, Thread.currentThread().getName());
+                                }
+                                DataBuffer head = envelopeHead(factory, reqId, inThread, cost);
+                                return ServerResponse.ok()
+                                        .contentType(MediaType.APPLICATION_JSON)
+                                        .body(BodyInserters.fromDataBuffers(Flux.just(head, orderResp, factory.wrap(TAIL))));
+                            })
+                            .onErrorResume(Deadline.ExceededException.class, e -> {
+                                if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+                                if (logged) {
+                                    log.warn("PUSH_BIZ deadline reqId={} mode={} ({})", reqId, MODE, e.getMessage());
+                                }
+                                return fail(reqId, start, inThread, PushController.RET_DEADLINE_EXCEEDED, "deadline exceeded");
+                            })
+                            .onErrorResume(OrderLimiter.LimitExceededException.class, e -> {
+                                if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+                                if (logged) {
+                                    log.warn("PUSH_BIZ limited reqId={} mode={} ({})", reqId, MODE, e.getMessage());
+                                }
+                                return fail(reqId, start, inThread, PushController.RET_ORDER_LIMITED, "order concurrency limit");
+                            })
+                            .onErrorResume(OrderCircuitBreaker.OpenException.class, e -> {
+                                if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+                                if (logged) {
+                                    log.warn("PUSH_BIZ circuit open reqId={} mode={} ({})", reqId, MODE, e.getMessage());
+                                }
+                                return fail(reqId, start, inThread, PushController.RET_CIRCUIT_OPEN, "order circuit open");
+                            })
+                            .doOnError(e -> log.error("PUSH_BIZ fail reqId={} mode={} err={}", reqId, MODE, e.toString(), e));
+                });
+    }
+
+    /** 请求体原样发给 order，响应体原样拿回来（多个分片 join 成一个） */
+    private Mono<DataBuffer> callOrder(DataBuffer in, AtomicBoolean sent, long deadlineMs) {
+        return orderBalancer.call(deadlineMs, baseUrl -> DataBufferUtils.join(webClient.post()
+                        .uri(baseUrl + "/order")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .headers(h -> {
+                            if (deadlineMs > 0) h.set(Deadline.HEADER, Long.toString(deadlineMs));
+                        })
+                        .body(BodyInserters.fromDataBuffers(Mono.fromSupplier(() -> {
+                            sent.set(true);
+                            return in;
+                        })))
+                        .retrieve()
+                        .bodyToFlux(DataBuffer.class))
+                        .timeout(Duration.ofSeconds(props.getOrderTimeoutSeconds())))
+                .doOnSubscribe(s -> inflight.inc(MODE))
+                .doFinally(sig -> inflight.dec(MODE));
+    }
+
+    /** 应答里 "orderResp": 之前的部分；之后是 order 的原始字节和 TAIL */
+    static DataBuffer envelopeHead(DataBufferFactory factory, String reqId, String inThread, long cost) {
+        DataBuffer head = factory.allocateBuffer(256);
+        head.write(OK_HEAD);
+        writeJsonString(head, reqId);
+        head.write(IN_THREAD);
+        writeJsonString(head, inThread);
+        head.write(END_THREAD);
+        writeJsonString(head, Thread.currentThread().getName());
+        head.write(COST);
+        head.write(Long.toString(cost), StandardCharsets.US_ASCII);
+        head.write(TS);
+        head.write(Instant.now().toString(), StandardCharsets.US_ASCII);
+        head.write(ORDER_RESP);
+        return head;
+    }
+
+    /** 流式扫顶层字段，拿到 reqId 就停，不建树；没有 reqId 跟 PushController 一样记成 NA */
+    static String readReqId(DataBuffer in) throws IOException {
+        DataBuffer view = in.slice(in.readPosition(), in.readableByteCount());
+        try (JsonParser p = JSON.createParser(view.asInputStream())) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("expected a JSON object");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken value = p.nextToken();
+                if ("reqId".equals(name) && value.isScalarValue()) {
+                    return value == JsonToken.VALUE_NULL ? "null" : p.getText();
+                }
+                p.skipChildren();
+            }
+        }
+        return "NA";
+    }
+
+    private static void writeJsonString(DataBuffer out, String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        out.write(sb.append('"'), StandardCharsets.UTF_8);
+    }
+
+    private Mono<ServerResponse> fail(String reqId, long start, String inThread, String retCode, String retMsg) {
+        Map<String, Object> out = PushController.wrapFail(reqId, start, inThread, MODE, retCode, retMsg);
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(out);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,185 @@
+package demo.push;
+
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * /admin/push：运行时看/改模式路由和池子大小，不用重启（push.routing.adminEnabled=false 时一律 404）。
+ * - GET：当前 push.mode、分流权重、各池子的大小和占用
+ * - POST：只带要改的字段，比如 {"split":{"blocking":50,"webclient":50}}、{"mode":"offload"}、
+ *   {"offload":{"threads":32}}、{"httpclient":{"maxTotal":100,"maxPerRoute":50}}；split 给 {} 表示不再分流。
+ *   先全部校验，有一个不对就 400 + retCode=900007，什么都不改；都对了才生效，返回改完的状态
+ * httpclient 的上限同时改 RestTemplate 和 asyncapache 两个 Apache 池子。
+ * WebClient 的 fixed 池子在 reactor-netty 0.9 里建好就不能改大小，这里只读（改 push.webclient.maxConnections 要重启）。
+ */
+@RestController
+public class PushAdminController {
+    private static final Logger log = LoggerFactory.getLogger(PushAdminController.class);
+
+    // 请求体不对（不认识的模式、负数、当前构建没有的模式）
+    static final String RET_ADMIN_BAD_REQUEST = "900007";
+
+    private final PushProperties props;
+    private final ModeRouter modeRouter;
+    private final OffloadExecutor offload;
+    private final PoolingHttpClientConnectionManager cm;
+    private final PoolingNHttpClientConnectionManager asyncCm;
+
+    public PushAdminController(PushProperties props, ModeRouter modeRouter, OffloadExecutor offload,
+                               PoolingHttpClientConnectionManager cm, PoolingNHttpClientConnectionManager asyncCm) {
+        this.props = props;
+        this.modeRouter = modeRouter;
+        this.offload = offload;
+        this.cm = cm;
+        this.asyncCm = asyncCm;
+    }
+
+    @GetMapping("/admin/push")
+    public ResponseEntity<Map<String, Object>> get() {
+        if (!props.getRouting().isAdminEnabled()) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(state());
+    }
+
+    @PostMapping("/admin/push")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<Map<String, Object>> post(@RequestBody Map<String, Object> body) {
+        if (!props.getRouting().isAdminEnabled()) return ResponseEntity.notFound().build();
+
+        String mode = null;
+        Map<String, Integer> split = null;
+        int offloadThreads = -1;
+        int maxTotal = -1;
+        int maxPerRoute = -1;
+        try {
+            if (body.containsKey("mode")) {
+                mode = ModeRouter.normalize(String.valueOf(body.get("mode")));
+                if (mode == null) throw new IllegalArgumentException("unknown mode: " + body.get("mode"));
+                checkAvailable(mode);
+            }
+            if (body.containsKey("split")) {
+                split = new LinkedHashMap<>();
+                for (Map.Entry<String, Object> e : section(body, "split").entrySet()) {
+                    split.put(e.getKey(), positive("split." + e.getKey(), e.getValue(), true));
+                    String m = ModeRouter.normalize(e.getKey());
+                    if (m != null) checkAvailable(m);
+                }
+            }
+            if (body.containsKey("offload")) {
+                Map<String, Object> op = section(body, "offload");
+                if (op.containsKey("threads")) offloadThreads = positive("offload.threads", op.get("threads"), false);
+            }
+            if (body.containsKey("httpclient")) {
+                Map<String, Object> hp = section(body, "httpclient");
+                if (hp.containsKey("maxTotal")) maxTotal = positive("httpclient.maxTotal", hp.get("maxTotal"), false);
+                if (hp.containsKey("maxPerRoute")) maxPerRoute = positive("httpclient.maxPerRoute", hp.get("maxPerRoute"), false);
+            }
+            // 分流权重的其余检查（模式名、总和）在 ModeRouter 里，放在最前面生效，失败时别的还没改
+            if (split != null) modeRouter.setSplit(split);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("retCode", RET_ADMIN_BAD_REQUEST);
+            out.put("retMsg", e.getMessage());
+            log.warn("PUSH_ADMIN bad request body={} ({})", body, e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(out);
+        }
+
+        if (split != null) props.getRouting().setSplit(split);
+        if (mode != null) props.setMode(mode);
+        if (offloadThreads > 0) {
+            resizeOffload(offloadThreads);
+            props.getOffload().setThreads(offloadThreads);
+        }
+        if (maxTotal > 0) {
+            cm.setMaxTotal(maxTotal);
+            asyncCm.setMaxTotal(maxTotal);
+            props.getHttpclient().setMaxTotal(maxTotal);
+        }
+        if (maxPerRoute > 0) {
+            cm.setDefaultMaxPerRoute(maxPerRoute);
+            asyncCm.setDefaultMaxPerRoute(maxPerRoute);
+            // 已经建过的 route 各自有上限，一起改
+            for (HttpRoute r : cm.getRoutes()) cm.setMaxPerRoute(r, maxPerRoute);
+            for (HttpRoute r : asyncCm.getRoutes()) asyncCm.setMaxPerRoute(r, maxPerRoute);
+            props.getHttpclient().setMaxPerRoute(maxPerRoute);
+        }
+        log.info("PUSH_ADMIN applied mode={} split={} offloadThreads={} maxTotal={} maxPerRoute={}",
+                props.getMode(), modeRouter.split(), offload.getMaximumPoolSize(), cm.getMaxTotal(), cm.getDefaultMaxPerRoute());
+        return ResponseEntity.ok(state());
+    }
+
+    // 线程数变大先改 max 再改 core，变小反过来，否则 ThreadPoolExecutor 抛 IllegalArgumentException
+    private void resizeOffload(int threads) {
+        if (threads >= offload.getMaximumPoolSize()) {
+            offload.setMaximumPoolSize(threads);
+            offload.setCorePoolSize(threads);
+        } else {
+            offload.setCorePoolSize(threads);
+            offload.setMaximumPoolSize(threads);
+        }
+    }
+
+    private void checkAvailable(String mode) {
+        if (!modeRouter.isAvailable(mode)) {
+            throw new IllegalArgumentException("mode virtual needs a JDK 21 build of push (profile jdk21)");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(Map<String, Object> body, String name) {
+        Object v = body.get(name);
+        if (!(v instanceof Map)) throw new IllegalArgumentException(name + " must be an object");
+        return (Map<String, Object>) v;
+    }
+
+    private static int positive(String name, Object v, boolean zeroAllowed) {
+        if (!(v instanceof Number)) throw new IllegalArgumentException(name + " must be a number");
+        int n = ((Number) v).intValue();
+        if (n < 0 || (n == 0 && !zeroAllowed)) throw new IllegalArgumentException(name + " out of range: " + v);
+        return n;
+    }
+
+    private Map<String, Object> state() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("retCode", PushController.RET_OK);
+        out.put("mode", props.getMode());
+        out.put("split", modeRouter.split());
+        PushProperties.RoutingProps rp = props.getRouting();
+        out.put("header", rp.isHeaderEnabled() ? rp.getHeader() : null);
+        out.put("timeoutMs", rp.getTimeoutMs());
+
+        Map<String, Object> pools = new LinkedHashMap<>();
+        Map<String, Object> op = new LinkedHashMap<>();
+        op.put("threads", offload.getMaximumPoolSize());
+        op.put("queueCapacity", offload.getQueue().size() + offload.getQueue().remainingCapacity());
+        op.put("active", offload.getActiveCount());
+        op.put("queued", offload.getQueue().size());
+        pools.put("offload", op);
+
+        Map<String, Object> hp = new LinkedHashMap<>();
+        hp.put("maxTotal", cm.getMaxTotal());
+        hp.put("maxPerRoute", cm.getDefaultMaxPerRoute());
+        hp.put("leased", cm.getTotalStats().getLeased());
+        hp.put("asyncLeased", asyncCm.getTotalStats().getLeased());
+        pools.put("httpclient", hp);
+
+        Map<String, Object> wp = new LinkedHashMap<>();
+        wp.put("pool", props.getWebclient().getPool());
+        wp.put("maxConnections", props.getWebclient().getMaxConnections());
+        wp.put("resizable", false);
+        pools.put("webclient", wp);
+        out.put("pools", pools);
+        return out;
+    }
+}
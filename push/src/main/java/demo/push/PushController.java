@@ -2,100 +2,335 @@ package demo.push;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.Scheduler;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 public class PushController {
     private static final Logger log = LoggerFactory.getLogger(PushController.class);
 
+    static final String RET_OK = "000000";
+    // offload 线程池 + 队列都满，直接拒绝
+    static final String RET_OFFLOAD_REJECTED = "900001";
+    // 自适应并发上限满了，不排队直接拒绝（OrderLimiter）
+    static final String RET_ORDER_LIMITED = "900002";
+    // 上游给的截止时间（X-Deadline）已过，不再等 order
+    static final String RET_DEADLINE_EXCEEDED = "900003";
+    // async-ack 本地队列里没处理完的条数到了上限（push.ack.maxPending）
+    static final String RET_ACK_QUEUE_FULL = "900004";
+    // order 熔断打开（OrderCircuitBreaker），不发请求直接失败
+    static final String RET_CIRCUIT_OPEN = "900006";
+
     private final PushProperties props;
     private final RestTemplate restTemplate;
     private final WebClient webClient;
+    private final InflightGauges inflight;
+    private final SingleFlight singleFlight;
+    private final OrderBatcher orderBatcher;
+    private final OrderLimiter orderLimiter;
+    private final OrderHedger orderHedger;
+    private final AsyncOrderClient asyncOrderClient;
+    private final AckQueue ackQueue;
+    private final OrderBalancer orderBalancer;
+    private final ModeRouter modeRouter;
+    private final Scheduler offloadScheduler;
+    // 只有 jdk21 profile 构建时才存在（VirtualThreadConfig）
+    private final ObjectProvider<Scheduler> virtualScheduler;
 
-    public PushController(PushProperties props, RestTemplate restTemplate, WebClient webClient) {
+    public PushController(PushProperties props, RestTemplate restTemplate, WebClient webClient,
+                          InflightGauges inflight, SingleFlight singleFlight, OrderBatcher orderBatcher,
+                          OrderLimiter orderLimiter, OrderHedger orderHedger, AsyncOrderClient asyncOrderClient,
+                          AckQueue ackQueue, OrderBalancer orderBalancer, ModeRouter modeRouter,
+                          @Qualifier("offloadScheduler") Scheduler offloadScheduler,
+                          @Qualifier("virtualScheduler") ObjectProvider<Scheduler> virtualScheduler) {
         this.props = props;
         this.restTemplate = restTemplate;
         this.webClient = webClient;
+        this.inflight = inflight;
+        this.singleFlight = singleFlight;
+        this.orderBatcher = orderBatcher;
+        this.orderLimiter = orderLimiter;
+        this.orderHedger = orderHedger;
+        this.asyncOrderClient = asyncOrderClient;
+        this.ackQueue = ackQueue;
+        this.orderBalancer = orderBalancer;
+        this.modeRouter = modeRouter;
+        this.offloadScheduler = offloadScheduler;
+        this.virtualScheduler = virtualScheduler;
     }
 
     @PostMapping("/push")
-    public Mono<Map<String, Object>> push(@RequestBody Map<String, Object> body) {
+    public Mono<Map<String, Object>> push(@RequestBody Map<String, Object> body, ServerWebExchange exchange) {
         final long start = System.currentTimeMillis();
         final String reqId = String.valueOf(body.getOrDefault("reqId", "NA"));
         final String inThread = Thread.currentThread().getName();
-        final String mode = props.getMode();
+        // 请求头 / 分流权重 / push.mode，PushWebFilter 已经选过的话是同一个
+        final String mode = modeRouter.resolve(exchange);
+        // PushWebFilter 建好的；recv/ok 两行跟 PUSH_HTTP 一起抽样
+        final PushMetrics.Sample sample = PushMetrics.sample(exchange);
+        final boolean logged = sample == null || sample.isLogged();
+        if (sample != null) sample.setMode(mode);
+        // trans 带来的绝对截止时间，0 表示不限
+        final long deadlineMs = props.getDeadline().isEnabled()
+                ? Deadline.parse(exchange.getRequest().getHeaders().getFirst(Deadline.HEADER)) : 0;
 
-        log.info("PUSH_BIZ recv reqId={} mode={} thread={}", reqId, mode, inThread);
+        if (logged) {
+            log.info("PUSH_BIZ recv reqId={} mode={} thread={}", reqId, mode, inThread);
+        }
 
-        if ("blocking".equalsIgnoreCase(mode)) {
-            Map<String, Object> orderResp = callOrderByRestTemplate(body);
-            Map<String, Object> out = wrapOk(reqId, start, inThread, orderResp, mode);
-            log.info("PUSH_BIZ ok reqId={} mode={} costMs={}", reqId, mode, out.get("pushCostMs"));
-            return Mono.just(out);
+        long remainingMs = Deadline.remainingMs(deadlineMs);
+        if (remainingMs <= 0) {
+            // 到 push 时 trans 已经放弃了，不占 order 连接
+            if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+            if (logged) {
+                log.warn("PUSH_BIZ expired reqId={} mode={} lateMs={}", reqId, mode, -remainingMs);
+            }
+            return Mono.just(wrapFail(reqId, start, inThread, mode, RET_DEADLINE_EXCEEDED, "deadline exceeded"));
         }
 
-        if ("offload".equalsIgnoreCase(mode)) {
-            return Mono.fromCallable(() -> callOrderByRestTemplate(body))
-                    .subscribeOn(Schedulers.boundedElastic())
-                    .map(orderResp -> {
-                        Map<String, Object> out = wrapOk(reqId, start, inThread, orderResp, mode);
-                        log.info("PUSH_BIZ ok reqId={} mode={} costMs={} endThread={}",
-                                reqId, mode, out.get("pushCostMs"), out.get("pushEndThread"));
-                        return out;
-                    })
-                    .doOnError(e -> log.error("PUSH_BIZ fail reqId={} mode={} err={}", reqId, mode, e.toString(), e));
+        if (AckQueue.MODE.equalsIgnoreCase(mode)) {
+            return accept(reqId, body, start, inThread, mode, exchange, sample, logged);
         }
 
-        // webclient
-        return webClient.post()
-                .uri("/order")
-                .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(body)
-                .retrieve()
-                .bodyToMono(Map.class)
-                .timeout(Duration.ofSeconds(props.getOrderTimeoutSeconds()))
+        // 同一个 reqId 并发/短时间内重复到达时，共用一次 order 调用；真正发出的调用才占 limiter 名额
+        SingleFlight.Flight flight = singleFlight.join(reqId,
+                () -> orderLimiter.wrap(callOrder(mode, body, deadlineMs), deadlineMs));
+
+        Mono<Map<String, Object>> resp = flight.orderResp();
+        if (deadlineMs > 0) {
+            // 到截止时间就不等了：取消订阅；同一个 reqId 的等待者都取消了 SingleFlight 才取消 order 调用，
+            // WebClient 连接随之释放；RestTemplate 那边由 socket 超时兜住
+            resp = resp.timeout(Duration.ofMillis(remainingMs),
+                    Mono.defer(() -> Mono.error(new Deadline.ExceededException(deadlineMs))));
+        }
+
+        return resp
                 .map(orderResp -> {
-                    Map<String, Object> out = wrapOk(reqId, start, inThread, cast(orderResp), mode);
-                    log.info("PUSH_BIZ ok reqId={} mode={} costMs={} endThread={}",
-                            reqId, mode, out.get("pushCostMs"), out.get("pushEndThread"));
+                    Map<String, Object> out = wrapOk(reqId, start, inThread, orderResp, mode);
+                    if ("offload".equalsIgnoreCase(mode)) {
+                        // 排队时间跟着结果走：single-flight 共享/缓存的结果，map 跑在别的请求的线程上，不能读 ThreadLocal；
+                        // 缓存命中的没排队，给 -1
+                        out.put("offloadWaitMs", orderResp instanceof OffloadResp
+                                && !SingleFlight.SOURCE_CACHE.equals(flight.source())
+                                ? ((OffloadResp) orderResp).waitMs : -1);
+                    }
+                    out.put("orderSource", flight.source());
+                    if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_OK);
+                    if (logged) {
+                        log.info("PUSH_BIZ ok reqId={} mode={} src={} costMs={} endThread={}",
+                                reqId, mode, flight.source(), out.get("pushCostMs"), out.get("pushEndThread"));
+                    }
                     return out;
                 })
+                .onErrorResume(RejectedExecutionException.class, e -> {
+                    if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+                    if (logged) {
+                        log.warn("PUSH_BIZ rejected reqId={} mode={} (offload queue full)", reqId, mode);
+                    }
+                    return Mono.just(wrapFail(reqId, start, inThread, mode,
+                            RET_OFFLOAD_REJECTED, "offload queue full"));
+                })
+                .onErrorResume(Deadline.ExceededException.class, e -> {
+                    if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+                    if (logged) {
+                        log.warn("PUSH_BIZ deadline reqId={} mode={} ({})", reqId, mode, e.getMessage());
+                    }
+                    return Mono.just(wrapFail(reqId, start, inThread, mode,
+                            RET_DEADLINE_EXCEEDED, "deadline exceeded"));
+                })
+                .onErrorResume(OrderLimiter.LimitExceededException.class, e -> {
+                    if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+                    if (logged) {
+                        log.warn("PUSH_BIZ limited reqId={} mode={} ({})", reqId, mode, e.getMessage());
+                    }
+                    return Mono.just(wrapFail(reqId, start, inThread, mode,
+                            RET_ORDER_LIMITED, "order concurrency limit"));
+                })
+                .onErrorResume(OrderCircuitBreaker.OpenException.class, e -> {
+                    if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+                    if (logged) {
+                        log.warn("PUSH_BIZ circuit open reqId={} mode={} ({})", reqId, mode, e.getMessage());
+                    }
+                    return Mono.just(wrapFail(reqId, start, inThread, mode,
+                            RET_CIRCUIT_OPEN, "order circuit open"));
+                })
                 .doOnError(e -> log.error("PUSH_BIZ fail reqId={} mode={} err={}", reqId, mode, e.toString(), e));
     }
 
+    /**
+     * async-ack：写进本地日志就回 202，order 由 AckQueue 在后台投递，结果查 GET /push/status/{reqId}。
+     * 重复的 reqId 回已有那条的状态（ackDuplicate=true）。
+     */
+    private Mono<Map<String, Object>> accept(String reqId, Map<String, Object> body, long start, String inThread,
+                                             String mode, ServerWebExchange exchange,
+                                             PushMetrics.Sample sample, boolean logged) {
+        final AckQueue.Accepted acc;
+        try {
+            acc = ackQueue.accept(reqId, body);
+        } catch (AckQueue.QueueFullException e) {
+            if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_REJECTED);
+            if (logged) {
+                log.warn("PUSH_BIZ rejected reqId={} mode={} ({})", reqId, mode, e.getMessage());
+            }
+            return Mono.just(wrapFail(reqId, start, inThread, mode, RET_ACK_QUEUE_FULL, "ack queue full"));
+        } catch (Exception e) {
+            log.error("PUSH_BIZ fail reqId={} mode={} err={}", reqId, mode, e.toString(), e);
+            return Mono.error(e);
+        }
+
+        exchange.getResponse().setStatusCode(HttpStatus.ACCEPTED);
+        AckQueue.Status st = acc.status;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("retCode", RET_OK);
+        out.put("retMsg", "ACCEPTED");
+        out.put("reqId", reqId);
+        out.put("pushMode", mode);
+        out.put("pushInThread", inThread);
+        out.put("pushEndThread", Thread.currentThread().getName());
+        out.put("pushCostMs", System.currentTimeMillis() - start);
+        out.put("ts", Instant.now().toString());
+        out.put("ackSeq", st.seq);
+        out.put("ackState", st.state);
+        out.put("ackDuplicate", acc.duplicate);
+        out.put("statusUrl", "/push/status/" + reqId);
+        if (sample != null) sample.setOutcome(PushMetrics.OUTCOME_OK);
+        if (logged) {
+            log.info("PUSH_BIZ accepted reqId={} mode={} seq={} duplicate={} costMs={}",
+                    reqId, mode, st.seq, acc.duplicate, out.get("pushCostMs"));
+        }
+        return Mono.just(out);
+    }
+
+    /**
+     * 按模式构造一次 order 调用（惰性，订阅时才真正发出）。
+     * blocking 不切线程：WebFlux 在 reactor-http 线程上订阅，RestTemplate 就直接阻塞 event-loop。
+     */
+    private Mono<Map<String, Object>> callOrder(String mode, Map<String, Object> body, long deadlineMs) {
+        // 熔断全开时在这里就失败，不进 offload 队列、不占线程
+        OrderCircuitBreaker.OpenException open = orderBalancer.openException();
+        if (open != null) return Mono.error(open);
+
+        if ("blocking".equalsIgnoreCase(mode)) {
+            return Mono.fromCallable(() -> callOrderByRestTemplate(body, deadlineMs))
+                    .doOnSubscribe(s -> inflight.inc(mode))
+                    .doFinally(sig -> inflight.dec(mode));
+        }
+
+        if ("offload".equalsIgnoreCase(mode)) {
+            // 在执行任务的 offload 线程上取排队时间，放进结果里带出去
+            return Mono.<Map<String, Object>>fromCallable(() -> {
+                        long waitMs = OffloadExecutor.currentTaskWaitMs();
+                        Map<String, Object> resp = callOrderByRestTemplate(body, deadlineMs);
+                        return resp == null ? null : new OffloadResp(resp, waitMs);
+                    })
+                    .subscribeOn(offloadScheduler)
+                    .doOnSubscribe(s -> inflight.inc(mode))
+                    .doFinally(sig -> inflight.dec(mode));
+        }
+
+        if ("virtual".equalsIgnoreCase(mode)) {
+            Scheduler vs = virtualScheduler.getIfAvailable();
+            if (vs == null) {
+                return Mono.error(new IllegalStateException(
+                        "push.mode=virtual needs a JDK 21 build of push (profile jdk21)"));
+            }
+            // 跟 offload 一样走 RestTemplate，只是每个请求一个 virtual thread，不受线程池上限约束
+            return Mono.fromCallable(() -> callOrderByRestTemplate(body, deadlineMs))
+                    .subscribeOn(vs)
+                    .doOnSubscribe(s -> inflight.inc(mode))
+                    .doFinally(sig -> inflight.dec(mode));
+        }
+
+        if ("batch".equalsIgnoreCase(mode)) {
+            // 攒批后走 POST /orders/batch，结果再分发回来
+            return orderBatcher.submit(body, deadlineMs)
+                    .doOnSubscribe(s -> inflight.inc(mode))
+                    .doFinally(sig -> inflight.dec(mode));
+        }
+
+        if ("asyncapache".equalsIgnoreCase(mode)) {
+            // Apache HttpAsyncClient：跟 RestTemplate 一样的池子配置，但不占线程等响应
+            return asyncOrderClient.postOrder(body, deadlineMs)
+                    .timeout(Duration.ofSeconds(props.getOrderTimeoutSeconds()))
+                    .doOnSubscribe(s -> inflight.inc(mode))
+                    .doFinally(sig -> inflight.dec(mode));
+        }
+
+        // webclient
+        // push.hedge 开启时慢了会再发一次，先回来的赢；对冲的那次单独选实例
+        return orderHedger.hedge(() -> orderBalancer.call(deadlineMs, baseUrl -> webClient.post()
+                        .uri(baseUrl + "/order")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .headers(h -> {
+                            if (deadlineMs > 0) h.set(Deadline.HEADER, Long.toString(deadlineMs));
+                        })
+                        .bodyValue(body)
+                        .retrieve()
+                        .bodyToMono(Map.class)
+                        .timeout(Duration.ofSeconds(props.getOrderTimeoutSeconds()))))
+                .doOnSubscribe(s -> inflight.inc(mode))
+                .doFinally(sig -> inflight.dec(mode))
+                .map(this::cast);
+    }
+
+    /** offload 模式的 order 响应，带上这次调用在 offload 队列里等的时间；序列化出来跟原响应一样 */
+    private static final class OffloadResp extends LinkedHashMap<String, Object> {
+        final long waitMs;
+
+        OffloadResp(Map<String, Object> orderResp, long waitMs) {
+            super(orderResp);
+            this.waitMs = waitMs;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private Map<String, Object> cast(Object obj) {
         return (Map<String, Object>) obj;
     }
 
+    /**
+     * 带截止时间调 order：offload 排队期间过期的直接放弃；没过期的把剩余预算交给 request factory
+     * 当本次的 socket/取连接超时，并把 X-Deadline 转给 order。
+     */
     @SuppressWarnings("unchecked")
-    private Map<String, Object> callOrderByRestTemplate(Map<String, Object> body) {
-        String url = props.getOrderBaseUrl() + "/order";
-
+    private Map<String, Object> callOrderByRestTemplate(Map<String, Object> body, long deadlineMs) throws Exception {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
+        if (deadlineMs > 0) headers.set(Deadline.HEADER, Long.toString(deadlineMs));
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
 
-        ResponseEntity<Map> resp = restTemplate.exchange(url, HttpMethod.POST, entity, Map.class);
-        return (Map<String, Object>) resp.getBody();
+        try {
+            ResponseEntity<Map> resp = Deadline.callWithin(deadlineMs,
+                    () -> orderBalancer.execute(deadlineMs, baseUrl ->
+                            restTemplate.exchange(baseUrl + "/order", HttpMethod.POST, entity, Map.class)));
+            return (Map<String, Object>) resp.getBody();
+        } catch (ResourceAccessException e) {
+            // socket/取连接超时是被截止时间压出来的
+            if (Deadline.remainingMs(deadlineMs) <= 0) throw new Deadline.ExceededException(deadlineMs);
+            throw e;
+        }
     }
 
-    private Map<String, Object> wrapOk(String reqId, long startMs, String inThread,
-                                       Map<String, Object> orderResp, String mode) {
+    static Map<String, Object> wrapOk(String reqId, long startMs, String inThread,
+                                      Map<String, Object> orderResp, String mode) {
         long cost = System.currentTimeMillis() - startMs;
 
         Map<String, Object> out = new LinkedHashMap<>();
-        out.put("retCode", "000000");
+        out.put("retCode", RET_OK);
         out.put("retMsg", "OK");
         out.put("reqId", reqId);
         out.put("pushMode", mode);
@@ -106,4 +341,18 @@ public class PushController {
         out.put("orderResp", orderResp);
         return out;
     }
+
+    static Map<String, Object> wrapFail(String reqId, long startMs, String inThread, String mode,
+                                        String retCode, String retMsg) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("retCode", retCode);
+        out.put("retMsg", retMsg);
+        out.put("reqId", reqId);
+        out.put("pushMode", mode);
+        out.put("pushInThread", inThread);
+        out.put("pushEndThread", Thread.currentThread().getName());
+        out.put("pushCostMs", System.currentTimeMillis() - startMs);
+        out.put("ts", Instant.now().toString());
+        return out;
+    }
 }
@@ -0,0 +1,365 @@
+package demo.push;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * /push 的计数器 + 耗时直方图，替代逐条 INFO 日志（几千 QPS 时同步打控制台会吃掉 event-loop 时间）。
+ *
+ * 维度：mode × HTTP 状态码段（2xx/4xx/5xx…）× outcome（ok/rejected/error/cancelled）× 完成线程（event_loop/worker）。
+ * 全部用 LongAdder（分段计数，多线程写不抢同一个 cache line），桶是固定的数组，
+ * 每个 mode 的序列在第一次出现时一次性建好，之后记录一次请求不再分配对象。
+ * 由 MetricsController 以 Prometheus 文本格式输出（GET /metrics）。
+ */
+@Component
+public class PushMetrics {
+
+    public static final int OUTCOME_OK = 0;
+    public static final int OUTCOME_REJECTED = 1;
+    public static final int OUTCOME_ERROR = 2;
+    public static final int OUTCOME_CANCELLED = 3;
+    private static final String[] OUTCOMES = {"ok", "rejected", "error", "cancelled"};
+
+    private static final int THREAD_EVENT_LOOP = 0;
+    private static final int THREAD_WORKER = 1;
+    private static final String[] THREADS = {"event_loop", "worker"};
+
+    // 状态码段 0（没有状态码）~ 5（5xx）
+    private static final int STATUS_CLASSES = 6;
+
+    // 耗时桶上界（毫秒），最后再加一个 +Inf
+    private static final long[] BUCKET_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2000, 4000, 10000, 60000};
+    private static final long[] BUCKET_NANOS = new long[BUCKET_MS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_MS.length; i++) BUCKET_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BUCKET_MS[i]);
+    }
+
+    // 挂在 exchange 上的单请求状态
+    private static final String SAMPLE_ATTR = PushMetrics.class.getName() + ".sample";
+
+    private final PushProperties props;
+    private final Map<String, ModeSeries> modes = new ConcurrentHashMap<>();
+    private final LongAdder sampledLogs = new LongAdder();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<String> gaugeOrder = new CopyOnWriteArrayList<>();
+
+    public PushMetrics(PushProperties props) {
+        this.props = props;
+    }
+
+    /** 一次请求：开始时间、mode、是否打日志（按 push.log.sampleRate 抽样，一个请求的几行日志要么都打要么都不打） */
+    public static final class Sample {
+        final long startNanos = System.nanoTime();
+        volatile String mode;
+        volatile int outcome = -1;
+        final boolean logged;
+
+        Sample(String mode, boolean logged) {
+            this.mode = mode;
+            this.logged = logged;
+        }
+
+        public boolean isLogged() { return logged; }
+        public void setMode(String mode) { this.mode = mode; }
+        public void setOutcome(int outcome) { this.outcome = outcome; }
+    }
+
+    /** mode 是 ModeRouter 给这个请求选的模式 */
+    Sample start(ServerWebExchange exchange, String mode) {
+        double rate = props.getLog().getSampleRate();
+        boolean logged = rate >= 1.0 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+        if (logged) sampledLogs.increment();
+        Sample s = new Sample(mode, logged);
+        exchange.getAttributes().put(SAMPLE_ATTR, s);
+        return s;
+    }
+
+    /** 控制器里取本请求的 Sample；不经过 PushWebFilter 的请求返回 null */
+    public static Sample sample(ServerWebExchange exchange) {
+        return exchange.getAttribute(SAMPLE_ATTR);
+    }
+
+    /** 请求结束时调用（PushWebFilter.doFinally），endThread 就是当前线程 */
+    void finish(Sample s, int status, int fallbackOutcome) {
+        long nanos = System.nanoTime() - s.startNanos;
+        int outcome = s.outcome >= 0 ? s.outcome : fallbackOutcome;
+        int statusClass = status >= 100 && status < 600 ? status / 100 : 0;
+        int thread = isEventLoop(Thread.currentThread()) ? THREAD_EVENT_LOOP : THREAD_WORKER;
+
+        ModeSeries ms = modes.get(s.mode);
+        if (ms == null) {
+            ms = modes.computeIfAbsent(s.mode, k -> new ModeSeries());
+        }
+        ms.series[statusClass][outcome][thread].record(nanos);
+        if (nanos > TimeUnit.MILLISECONDS.toNanos(props.getRouting().getTimeoutMs())) {
+            ms.overTimeout.increment();
+        }
+    }
+
+    /**
+     * 各模式自上次调用以来的区间统计，给 HttpPoolLogger 打 PUSH_MODE 行（A/B 分流时几个模式并排比）：
+     * [requests, ok, rejected, error, cancelled, overTimeout, p50Ms, p90Ms, p99Ms]。
+     * 分位数取所在桶的上界（超过最后一个桶的记为 60000）。
+     */
+    public synchronized Map<String, long[]> drainModeStats() {
+        Map<String, long[]> out = new TreeMap<>();
+        for (Map.Entry<String, ModeSeries> e : modes.entrySet()) {
+            ModeSeries ms = e.getValue();
+            long[] outcomes = new long[OUTCOMES.length];
+            long[] buckets = new long[BUCKET_MS.length + 1];
+            for (int sc = 0; sc < STATUS_CLASSES; sc++) {
+                for (int o = 0; o < OUTCOMES.length; o++) {
+                    for (int t = 0; t < THREADS.length; t++) {
+                        Series ser = ms.series[sc][o][t];
+                        outcomes[o] += ser.count.sum();
+                        for (int i = 0; i < buckets.length; i++) buckets[i] += ser.buckets[i].sum();
+                    }
+                }
+            }
+            long overTimeout = ms.overTimeout.sum();
+
+            long[] stats = new long[9];
+            for (int o = 0; o < outcomes.length; o++) {
+                stats[1 + o] = outcomes[o] - ms.lastOutcomes[o];
+                stats[0] += stats[1 + o];
+            }
+            stats[5] = overTimeout - ms.lastOverTimeout;
+            long[] delta = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) delta[i] = buckets[i] - ms.lastBuckets[i];
+            // 桶和计数不是同一时刻读的，分位数按桶自己的总数算
+            long total = 0;
+            for (long d : delta) total += d;
+            stats[6] = percentileMs(delta, total, 0.50);
+            stats[7] = percentileMs(delta, total, 0.90);
+            stats[8] = percentileMs(delta, total, 0.99);
+
+            ms.lastOutcomes = outcomes;
+            ms.lastBuckets = buckets;
+            ms.lastOverTimeout = overTimeout;
+            out.put(e.getKey(), stats);
+        }
+        return out;
+    }
+
+    private static long percentileMs(long[] buckets, long total, double q) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * q);
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i];
+            if (cumulative >= rank) return BUCKET_MS[Math.min(i, BUCKET_MS.length - 1)];
+        }
+        return BUCKET_MS[BUCKET_MS.length - 1];
+    }
+
+    static boolean isEventLoop(Thread t) {
+        return t.getName().startsWith("reactor-http");
+    }
+
+    /** 注册（或取已有的）一个不带标签的耗时直方图，桶跟 /push 的一样；调用方持有引用直接 record */
+    public Timer timer(String name, String help) {
+        return timers.computeIfAbsent(name, k -> new Timer(help));
+    }
+
+    /** 注册（或取已有的）一个带一个标签的计数器，比如 event-loop 卡顿按栈帧计数 */
+    public Counter counter(String name, String help, String label) {
+        return counters.computeIfAbsent(name, k -> new Counter(help, label));
+    }
+
+    /**
+     * 注册一个 gauge（其他组件的状态，比如连接池、offload 队列），输出时才调 supplier 取值。
+     * supplier 返回 “标签串 → 值”，标签串形如 mode="offload"，没有标签用 ""。
+     */
+    public void gauge(String name, String help, Supplier<Map<String, ? extends Number>> supplier) {
+        if (gauges.put(name, new Gauge(help, supplier)) == null) {
+            gaugeOrder.add(name);
+        }
+    }
+
+    /** Prometheus 文本格式（0.0.4） */
+    public void writePrometheus(StringBuilder out) {
+        out.append("# HELP push_requests_total /push requests by mode, status class, outcome and completing thread\n");
+        out.append("# TYPE push_requests_total counter\n");
+        for (Map.Entry<String, ModeSeries> e : modes.entrySet()) {
+            forEachSeries(e.getKey(), e.getValue(), (labels, ser) ->
+                    out.append("push_requests_total{").append(labels).append("} ").append(ser.count.sum()).append('\n'));
+        }
+
+        out.append("# HELP push_request_duration_seconds /push latency measured in PushWebFilter\n");
+        out.append("# TYPE push_request_duration_seconds histogram\n");
+        for (Map.Entry<String, ModeSeries> e : modes.entrySet()) {
+            forEachSeries(e.getKey(), e.getValue(),
+                    (labels, ser) -> writeHistogram(out, "push_request_duration_seconds", labels, ser));
+        }
+
+        out.append("# HELP push_requests_over_timeout_total /push requests slower than push.routing.timeoutMs by mode\n");
+        out.append("# TYPE push_requests_over_timeout_total counter\n");
+        for (Map.Entry<String, ModeSeries> e : modes.entrySet()) {
+            out.append("push_requests_over_timeout_total{mode=\"").append(e.getKey()).append("\"} ")
+                    .append(e.getValue().overTimeout.sum()).append('\n');
+        }
+
+        out.append("# HELP push_log_sampled_total requests whose PUSH_HTTP/PUSH_BIZ lines were logged\n");
+        out.append("# TYPE push_log_sampled_total counter\n");
+        out.append("push_log_sampled_total ").append(sampledLogs.sum()).append('\n');
+
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            out.append("# HELP ").append(e.getKey()).append(' ').append(e.getValue().help).append('\n');
+            out.append("# TYPE ").append(e.getKey()).append(" histogram\n");
+            writeHistogram(out, e.getKey(), "", e.getValue().series);
+        }
+
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            Counter c = e.getValue();
+            out.append("# HELP ").append(e.getKey()).append(' ').append(c.help).append('\n');
+            out.append("# TYPE ").append(e.getKey()).append(" counter\n");
+            for (Map.Entry<String, LongAdder> v : c.values.entrySet()) {
+                out.append(e.getKey()).append('{').append(c.label).append("=\"").append(escape(v.getKey()))
+                        .append("\"} ").append(v.getValue().sum()).append('\n');
+            }
+        }
+
+        for (String name : gaugeOrder) {
+            Gauge g = gauges.get(name);
+            out.append("# HELP ").append(name).append(' ').append(g.help).append('\n');
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            for (Map.Entry<String, ? extends Number> v : g.supplier.get().entrySet()) {
+                out.append(name);
+                if (!v.getKey().isEmpty()) out.append('{').append(v.getKey()).append('}');
+                out.append(' ').append(v.getValue()).append('\n');
+            }
+        }
+    }
+
+    private interface SeriesVisitor {
+        void visit(String labels, Series series);
+    }
+
+    private static void forEachSeries(String mode, ModeSeries ms, SeriesVisitor v) {
+        for (int sc = 0; sc < STATUS_CLASSES; sc++) {
+            for (int o = 0; o < OUTCOMES.length; o++) {
+                for (int t = 0; t < THREADS.length; t++) {
+                    Series ser = ms.series[sc][o][t];
+                    if (ser.count.sum() == 0) continue;
+                    String status = sc == 0 ? "none" : sc + "xx";
+                    v.visit("mode=\"" + mode + "\",status=\"" + status + "\",outcome=\"" + OUTCOMES[o]
+                            + "\",thread=\"" + THREADS[t] + "\"", ser);
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, Series ser) {
+        String sep = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i <= BUCKET_NANOS.length; i++) {
+            cumulative += ser.buckets[i].sum();
+            String le = i < BUCKET_NANOS.length ? seconds(BUCKET_NANOS[i]) : "+Inf";
+            out.append(name).append("_bucket{").append(labels).append(sep)
+                    .append("le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(seconds(ser.sumNanos.sum())).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(ser.count.sum()).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static final class ModeSeries {
+        final Series[][][] series = new Series[STATUS_CLASSES][OUTCOMES.length][THREADS.length];
+        final LongAdder overTimeout = new LongAdder();
+        // drainModeStats 上次读到的累计值
+        long[] lastOutcomes = new long[OUTCOMES.length];
+        long[] lastBuckets = new long[BUCKET_MS.length + 1];
+        long lastOverTimeout;
+
+        ModeSeries() {
+            for (Series[][] a : series) {
+                for (Series[] b : a) {
+                    for (int i = 0; i < b.length; i++) b[i] = new Series();
+                }
+            }
+        }
+    }
+
+    private static final class Series {
+        final LongAdder count = new LongAdder();
+        final LongAdder sumNanos = new LongAdder();
+        final LongAdder[] buckets = new LongAdder[BUCKET_MS.length + 1];
+
+        Series() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            count.increment();
+            sumNanos.add(nanos);
+            // le 是闭区间（<=），跟 Prometheus 一致
+            int i = 0;
+            while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i]) i++;
+            buckets[i].increment();
+        }
+    }
+
+    public static final class Timer {
+        final String help;
+        final Series series = new Series();
+
+        Timer(String help) {
+            this.help = help;
+        }
+
+        public void record(long nanos) {
+            series.record(nanos);
+        }
+    }
+
+    public static final class Counter {
+        final String help;
+        final String label;
+        final Map<String, LongAdder> values = new ConcurrentHashMap<>();
+
+        Counter(String help, String label) {
+            this.help = help;
+            this.label = label;
+        }
+
+        public void inc(String labelValue) {
+            values.computeIfAbsent(labelValue, k -> new LongAdder()).increment();
+        }
+
+        public long total() {
+            long sum = 0;
+            for (LongAdder a : values.values()) sum += a.sum();
+            return sum;
+        }
+    }
+
+    private static final class Gauge {
+        final String help;
+        final Supplier<Map<String, ? extends Number>> supplier;
+
+        Gauge(String help, Supplier<Map<String, ? extends Number>> supplier) {
+            this.help = help;
+            this.supplier = supplier;
+        }
+    }
+}
@@ -2,14 +2,35 @@ package demo.push;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @ConfigurationProperties(prefix = "push")
 public class PushProperties {
 
     private String mode = "blocking";
     private String orderBaseUrl = "http://localhost:27000";
+    // 多个 order 实例（逗号分隔或列表），配了就不再用 orderBaseUrl
+    private List<String> orderBaseUrls = new ArrayList<>();
     private long orderTimeoutSeconds = 60;
 
     private HttpClientProps httpclient = new HttpClientProps();
+    private WebClientProps webclient = new WebClientProps();
+    private OffloadProps offload = new OffloadProps();
+    private SingleFlightProps singleFlight = new SingleFlightProps();
+    private BatchProps batch = new BatchProps();
+    private LogProps log = new LogProps();
+    private WatchdogProps watchdog = new WatchdogProps();
+    private SamplerProps sampler = new SamplerProps();
+    private LimiterProps limiter = new LimiterProps();
+    private DeadlineProps deadline = new DeadlineProps();
+    private HedgeProps hedge = new HedgeProps();
+    private AckProps ack = new AckProps();
+    private BalancerProps balancer = new BalancerProps();
+    private BreakerProps breaker = new BreakerProps();
+    private RoutingProps routing = new RoutingProps();
 
     public String getMode() { return mode; }
     public void setMode(String mode) { this.mode = mode; }
@@ -17,12 +38,57 @@ public class PushProperties {
     public String getOrderBaseUrl() { return orderBaseUrl; }
     public void setOrderBaseUrl(String orderBaseUrl) { this.orderBaseUrl = orderBaseUrl; }
 
+    public List<String> getOrderBaseUrls() { return orderBaseUrls; }
+    public void setOrderBaseUrls(List<String> orderBaseUrls) { this.orderBaseUrls = orderBaseUrls; }
+
     public long getOrderTimeoutSeconds() { return orderTimeoutSeconds; }
     public void setOrderTimeoutSeconds(long orderTimeoutSeconds) { this.orderTimeoutSeconds = orderTimeoutSeconds; }
 
     public HttpClientProps getHttpclient() { return httpclient; }
     public void setHttpclient(HttpClientProps httpclient) { this.httpclient = httpclient; }
 
+    public WebClientProps getWebclient() { return webclient; }
+    public void setWebclient(WebClientProps webclient) { this.webclient = webclient; }
+
+    public OffloadProps getOffload() { return offload; }
+    public void setOffload(OffloadProps offload) { this.offload = offload; }
+
+    public SingleFlightProps getSingleFlight() { return singleFlight; }
+    public void setSingleFlight(SingleFlightProps singleFlight) { this.singleFlight = singleFlight; }
+
+    public BatchProps getBatch() { return batch; }
+    public void setBatch(BatchProps batch) { this.batch = batch; }
+
+    public LogProps getLog() { return log; }
+    public void setLog(LogProps log) { this.log = log; }
+
+    public WatchdogProps getWatchdog() { return watchdog; }
+    public void setWatchdog(WatchdogProps watchdog) { this.watchdog = watchdog; }
+
+    public SamplerProps getSampler() { return sampler; }
+    public void setSampler(SamplerProps sampler) { this.sampler = sampler; }
+
+    public LimiterProps getLimiter() { return limiter; }
+    public void setLimiter(LimiterProps limiter) { this.limiter = limiter; }
+
+    public DeadlineProps getDeadline() { return deadline; }
+    public void setDeadline(DeadlineProps deadline) { this.deadline = deadline; }
+
+    public HedgeProps getHedge() { return hedge; }
+    public void setHedge(HedgeProps hedge) { this.hedge = hedge; }
+
+    public AckProps getAck() { return ack; }
+    public void setAck(AckProps ack) { this.ack = ack; }
+
+    public BalancerProps getBalancer() { return balancer; }
+    public void setBalancer(BalancerProps balancer) { this.balancer = balancer; }
+
+    public BreakerProps getBreaker() { return breaker; }
+    public void setBreaker(BreakerProps breaker) { this.breaker = breaker; }
+
+    public RoutingProps getRouting() { return routing; }
+    public void setRouting(RoutingProps routing) { this.routing = routing; }
+
     public static class HttpClientProps {
         private int maxTotal = 200;
         private int maxPerRoute = 200;
@@ -37,6 +103,9 @@ public class PushProperties {
         private boolean poolLogEnabled = true;
         private int poolLogIntervalSeconds = 2;
 
+        // asyncapache 模式的 I/O dispatcher 线程数，<=0 表示 CPU 核数
+        private int asyncIoThreads = 0;
+
         public int getMaxTotal() { return maxTotal; }
         public void setMaxTotal(int maxTotal) { this.maxTotal = maxTotal; }
 
@@ -63,5 +132,404 @@ public class PushProperties {
 
         public int getPoolLogIntervalSeconds() { return poolLogIntervalSeconds; }
         public void setPoolLogIntervalSeconds(int poolLogIntervalSeconds) { this.poolLogIntervalSeconds = poolLogIntervalSeconds; }
+
+        public int getAsyncIoThreads() { return asyncIoThreads; }
+        public void setAsyncIoThreads(int asyncIoThreads) { this.asyncIoThreads = asyncIoThreads; }
+    }
+
+    public static class WebClientProps {
+        // fixed | elastic（reactor-netty 0.9 的默认：连接数不设上限）
+        private String pool = "fixed";
+        private int maxConnections = 200;
+        // 排队等连接的上限，-1 不限；超出直接失败
+        private int pendingAcquireMaxCount = 1000;
+        private long pendingAcquireTimeoutMs = 2000;
+        // 空闲多久关掉连接，<=0 不关
+        private long maxIdleTimeMs = 30000;
+        // 连接最长使用多久，<=0 不限
+        private long maxLifeTimeMs = 0;
+        private int connectTimeoutMs = 2000;
+        // 调 order 的 event loop 线程数，<=0 跟处理 /push 的 reactor-http 共用
+        private int loopThreads = 0;
+
+        public String getPool() { return pool; }
+        public void setPool(String pool) { this.pool = pool; }
+
+        public int getMaxConnections() { return maxConnections; }
+        public void setMaxConnections(int maxConnections) { this.maxConnections = maxConnections; }
+
+        public int getPendingAcquireMaxCount() { return pendingAcquireMaxCount; }
+        public void setPendingAcquireMaxCount(int pendingAcquireMaxCount) { this.pendingAcquireMaxCount = pendingAcquireMaxCount; }
+
+        public long getPendingAcquireTimeoutMs() { return pendingAcquireTimeoutMs; }
+        public void setPendingAcquireTimeoutMs(long pendingAcquireTimeoutMs) { this.pendingAcquireTimeoutMs = pendingAcquireTimeoutMs; }
+
+        public long getMaxIdleTimeMs() { return maxIdleTimeMs; }
+        public void setMaxIdleTimeMs(long maxIdleTimeMs) { this.maxIdleTimeMs = maxIdleTimeMs; }
+
+        public long getMaxLifeTimeMs() { return maxLifeTimeMs; }
+        public void setMaxLifeTimeMs(long maxLifeTimeMs) { this.maxLifeTimeMs = maxLifeTimeMs; }
+
+        public int getConnectTimeoutMs() { return connectTimeoutMs; }
+        public void setConnectTimeoutMs(int connectTimeoutMs) { this.connectTimeoutMs = connectTimeoutMs; }
+
+        public int getLoopThreads() { return loopThreads; }
+        public void setLoopThreads(int loopThreads) { this.loopThreads = loopThreads; }
+    }
+
+    public static class OffloadProps {
+        // <=0 表示跟 httpclient.maxTotal 一致
+        private int threads = 0;
+        // 队列满直接拒绝（fast-fail），不再无限排队
+        private int queueCapacity = 200;
+
+        public int getThreads() { return threads; }
+        public void setThreads(int threads) { this.threads = threads; }
+
+        public int getQueueCapacity() { return queueCapacity; }
+        public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+    }
+
+    public static class SingleFlightProps {
+        private boolean enabled = true;
+        // 成功结果缓存多久，<=0 只合并在途请求
+        private long resultTtlMs = 5000;
+        private int maxCachedResults = 10000;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public long getResultTtlMs() { return resultTtlMs; }
+        public void setResultTtlMs(long resultTtlMs) { this.resultTtlMs = resultTtlMs; }
+
+        public int getMaxCachedResults() { return maxCachedResults; }
+        public void setMaxCachedResults(int maxCachedResults) { this.maxCachedResults = maxCachedResults; }
+    }
+
+    public static class BatchProps {
+        // 攒够多少条就发
+        private int maxItems = 50;
+        // 第一条进来后最多等多久就发
+        private int maxWaitMs = 5;
+        // 同时在途的批次数（每批一个 order 连接）
+        private int maxConcurrentBatches = 32;
+
+        public int getMaxItems() { return maxItems; }
+        public void setMaxItems(int maxItems) { this.maxItems = maxItems; }
+
+        public int getMaxWaitMs() { return maxWaitMs; }
+        public void setMaxWaitMs(int maxWaitMs) { this.maxWaitMs = maxWaitMs; }
+
+        public int getMaxConcurrentBatches() { return maxConcurrentBatches; }
+        public void setMaxConcurrentBatches(int maxConcurrentBatches) { this.maxConcurrentBatches = maxConcurrentBatches; }
+    }
+
+    public static class LogProps {
+        // PUSH_HTTP / PUSH_BIZ 逐条日志的抽样比例：1.0 全打，0.01 百分之一，0 不打（失败日志不受影响）
+        private double sampleRate = 1.0;
+
+        public double getSampleRate() { return sampleRate; }
+        public void setSampleRate(double sampleRate) { this.sampleRate = sampleRate; }
+    }
+
+    public static class WatchdogProps {
+        private boolean enabled = true;
+        // 多久往每个 event loop 投一次探测任务
+        private long intervalMs = 20;
+        // 探测任务超过多久没跑就算卡住，抓一次栈
+        private long thresholdMs = 50;
+        // EVENT_LOOP_BLOCKED 日志里打几层栈
+        private int stackDepth = 20;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public long getIntervalMs() { return intervalMs; }
+        public void setIntervalMs(long intervalMs) { this.intervalMs = intervalMs; }
+
+        public long getThresholdMs() { return thresholdMs; }
+        public void setThresholdMs(long thresholdMs) { this.thresholdMs = thresholdMs; }
+
+        public int getStackDepth() { return stackDepth; }
+        public void setStackDepth(int stackDepth) { this.stackDepth = stackDepth; }
+    }
+
+    public static class SamplerProps {
+        private boolean enabled = true;
+        // 采样间隔（ThreadMXBean 取栈要进 safepoint，别太密）
+        private long intervalMs = 100;
+        // 按线程名前缀分池，逗号分隔
+        private String pools = "reactor-http,boundedElastic,push-offload,push-order-client";
+        private int maxDepth = 64;
+        // 空闲栈（epoll 等待、队列 take）是否也写进 collapsed 文件
+        private boolean includeIdle = false;
+        // flame graph collapsed 文件，留空不写
+        private String collapsedFile = "push-threads.collapsed";
+        private long flushIntervalSeconds = 10;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public long getIntervalMs() { return intervalMs; }
+        public void setIntervalMs(long intervalMs) { this.intervalMs = intervalMs; }
+
+        public String getPools() { return pools; }
+        public void setPools(String pools) { this.pools = pools; }
+
+        public int getMaxDepth() { return maxDepth; }
+        public void setMaxDepth(int maxDepth) { this.maxDepth = maxDepth; }
+
+        public boolean isIncludeIdle() { return includeIdle; }
+        public void setIncludeIdle(boolean includeIdle) { this.includeIdle = includeIdle; }
+
+        public String getCollapsedFile() { return collapsedFile; }
+        public void setCollapsedFile(String collapsedFile) { this.collapsedFile = collapsedFile; }
+
+        public long getFlushIntervalSeconds() { return flushIntervalSeconds; }
+        public void setFlushIntervalSeconds(long flushIntervalSeconds) { this.flushIntervalSeconds = flushIntervalSeconds; }
+    }
+
+    public static class LimiterProps {
+        private boolean enabled = false;
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 1000;
+        // 短期 RTT 超过长期 RTT 的多少倍才开始收缩
+        private double rttTolerance = 1.5;
+        // 新上限的平滑系数（0~1，越大跟得越快）
+        private double smoothing = 0.2;
+        // 长期 RTT 指数平均的样本窗口
+        private int longWindow = 600;
+        // 超时一次上限乘多少
+        private double backoffRatio = 0.9;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getInitialLimit() { return initialLimit; }
+        public void setInitialLimit(int initialLimit) { this.initialLimit = initialLimit; }
+
+        public int getMinLimit() { return minLimit; }
+        public void setMinLimit(int minLimit) { this.minLimit = minLimit; }
+
+        public int getMaxLimit() { return maxLimit; }
+        public void setMaxLimit(int maxLimit) { this.maxLimit = maxLimit; }
+
+        public double getRttTolerance() { return rttTolerance; }
+        public void setRttTolerance(double rttTolerance) { this.rttTolerance = rttTolerance; }
+
+        public double getSmoothing() { return smoothing; }
+        public void setSmoothing(double smoothing) { this.smoothing = smoothing; }
+
+        public int getLongWindow() { return longWindow; }
+        public void setLongWindow(int longWindow) { this.longWindow = longWindow; }
+
+        public double getBackoffRatio() { return backoffRatio; }
+        public void setBackoffRatio(double backoffRatio) { this.backoffRatio = backoffRatio; }
+    }
+
+    public static class DeadlineProps {
+        // 是否认 trans 带来的 X-Deadline（关掉就是原来的行为，只看 orderTimeoutSeconds）
+        private boolean enabled = true;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    }
+
+    public static class HedgeProps {
+        // 只对 webclient 模式生效
+        private boolean enabled = false;
+        // 固定对冲延迟；<=0 时按最近耗时的 percentile 分位
+        private long delayMs = 0;
+        private double percentile = 90;
+        private long minDelayMs = 10;
+        // 统计分位数用的最近样本数
+        private int window = 1024;
+        // 对冲请求最多占总请求的百分之几
+        private double budgetPercent = 10;
+        // 额度最多攒多少个（短时间内集中对冲的上限）
+        private int maxBudget = 10;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public long getDelayMs() { return delayMs; }
+        public void setDelayMs(long delayMs) { this.delayMs = delayMs; }
+
+        public double getPercentile() { return percentile; }
+        public void setPercentile(double percentile) { this.percentile = percentile; }
+
+        public long getMinDelayMs() { return minDelayMs; }
+        public void setMinDelayMs(long minDelayMs) { this.minDelayMs = minDelayMs; }
+
+        public int getWindow() { return window; }
+        public void setWindow(int window) { this.window = window; }
+
+        public double getBudgetPercent() { return budgetPercent; }
+        public void setBudgetPercent(double budgetPercent) { this.budgetPercent = budgetPercent; }
+
+        public int getMaxBudget() { return maxBudget; }
+        public void setMaxBudget(int maxBudget) { this.maxBudget = maxBudget; }
+    }
+
+    public static class AckProps {
+        // 日志目录（相对路径按启动目录）
+        private String dir = "push-ack";
+        // 每段文件大小，单条记录（请求体 + 24 字节头）不能超过它
+        private int segmentBytes = 64 * 1024 * 1024;
+        // 数据段刷盘间隔；<=0 每条都刷（在受理线程上，慢）
+        private long forceIntervalMs = 200;
+        // 没处理完的条数上限，满了返回 retCode=900004
+        private long maxPending = 100000;
+        // 同时投递给 order 的最大并发
+        private int workers = 64;
+        // 每条最多调几次 order（含第一次），退避从 retryBackoffMs 开始翻倍，最多 maxBackoffMs
+        private int maxAttempts = 5;
+        private long retryBackoffMs = 200;
+        private long maxBackoffMs = 10000;
+        // 内存里保留多少条状态给 /push/status 查
+        private int statusCapacity = 100000;
+
+        public String getDir() { return dir; }
+        public void setDir(String dir) { this.dir = dir; }
+
+        public int getSegmentBytes() { return segmentBytes; }
+        public void setSegmentBytes(int segmentBytes) { this.segmentBytes = segmentBytes; }
+
+        public long getForceIntervalMs() { return forceIntervalMs; }
+        public void setForceIntervalMs(long forceIntervalMs) { this.forceIntervalMs = forceIntervalMs; }
+
+        public long getMaxPending() { return maxPending; }
+        public void setMaxPending(long maxPending) { this.maxPending = maxPending; }
+
+        public int getWorkers() { return workers; }
+        public void setWorkers(int workers) { this.workers = workers; }
+
+        public int getMaxAttempts() { return maxAttempts; }
+        public void setMaxAttempts(int maxAttempts) { this.maxAttempts = maxAttempts; }
+
+        public long getRetryBackoffMs() { return retryBackoffMs; }
+        public void setRetryBackoffMs(long retryBackoffMs) { this.retryBackoffMs = retryBackoffMs; }
+
+        public long getMaxBackoffMs() { return maxBackoffMs; }
+        public void setMaxBackoffMs(long maxBackoffMs) { this.maxBackoffMs = maxBackoffMs; }
+
+        public int getStatusCapacity() { return statusCapacity; }
+        public void setStatusCapacity(int statusCapacity) { this.statusCapacity = statusCapacity; }
+    }
+
+    public static class BalancerProps {
+        // roundrobin | least | p2c
+        private String strategy = "p2c";
+        // 延迟 EWMA 的平滑系数（新样本的权重）
+        private double ewmaAlpha = 0.3;
+        // 没有新样本时 EWMA 往均值回落的时间常数
+        private long idleDecayMs = 10000;
+        // 连续失败多少次摘除；<=0 不按失败摘
+        private int consecutiveFailures = 5;
+        // EWMA 超过其余实例均值的多少倍摘除；<=0 不按延迟摘
+        private double latencyFactor = 3.0;
+        // 至少攒够多少个样本才按延迟判断
+        private int minSamples = 20;
+        // 摘除时长 = baseEjectionMs × 第几次被摘，最多 maxEjectionMs
+        private long baseEjectionMs = 10000;
+        private long maxEjectionMs = 60000;
+        // 同时被摘的实例最多占百分之几（至少允许摘一个）
+        private int maxEjectionPercent = 50;
+
+        public String getStrategy() { return strategy; }
+        public void setStrategy(String strategy) { this.strategy = strategy; }
+
+        public double getEwmaAlpha() { return ewmaAlpha; }
+        public void setEwmaAlpha(double ewmaAlpha) { this.ewmaAlpha = ewmaAlpha; }
+
+        public long getIdleDecayMs() { return idleDecayMs; }
+        public void setIdleDecayMs(long idleDecayMs) { this.idleDecayMs = idleDecayMs; }
+
+        public int getConsecutiveFailures() { return consecutiveFailures; }
+        public void setConsecutiveFailures(int consecutiveFailures) { this.consecutiveFailures = consecutiveFailures; }
+
+        public double getLatencyFactor() { return latencyFactor; }
+        public void setLatencyFactor(double latencyFactor) { this.latencyFactor = latencyFactor; }
+
+        public int getMinSamples() { return minSamples; }
+        public void setMinSamples(int minSamples) { this.minSamples = minSamples; }
+
+        public long getBaseEjectionMs() { return baseEjectionMs; }
+        public void setBaseEjectionMs(long baseEjectionMs) { this.baseEjectionMs = baseEjectionMs; }
+
+        public long getMaxEjectionMs() { return maxEjectionMs; }
+        public void setMaxEjectionMs(long maxEjectionMs) { this.maxEjectionMs = maxEjectionMs; }
+
+        public int getMaxEjectionPercent() { return maxEjectionPercent; }
+        public void setMaxEjectionPercent(int maxEjectionPercent) { this.maxEjectionPercent = maxEjectionPercent; }
+    }
+
+    public static class BreakerProps {
+        private boolean enabled = false;
+        // 计数滑动窗口：最近多少次调用
+        private int windowSize = 100;
+        // 窗口里至少多少次才按比例判断
+        private int minimumCalls = 20;
+        // 失败率（%）到了就打开
+        private double failureRateThreshold = 50;
+        // 超过这个耗时算慢调用，慢调用率（%）到了也打开
+        private long slowCallDurationMs = 5000;
+        private double slowCallRateThreshold = 80;
+        // 打开多久后转半开
+        private long waitDurationMs = 5000;
+        // 半开时放几个探测请求
+        private int permittedHalfOpenCalls = 5;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getWindowSize() { return windowSize; }
+        public void setWindowSize(int windowSize) { this.windowSize = windowSize; }
+
+        public int getMinimumCalls() { return minimumCalls; }
+        public void setMinimumCalls(int minimumCalls) { this.minimumCalls = minimumCalls; }
+
+        public double getFailureRateThreshold() { return failureRateThreshold; }
+        public void setFailureRateThreshold(double failureRateThreshold) { this.failureRateThreshold = failureRateThreshold; }
+
+        public long getSlowCallDurationMs() { return slowCallDurationMs; }
+        public void setSlowCallDurationMs(long slowCallDurationMs) { this.slowCallDurationMs = slowCallDurationMs; }
+
+        public double getSlowCallRateThreshold() { return slowCallRateThreshold; }
+        public void setSlowCallRateThreshold(double slowCallRateThreshold) { this.slowCallRateThreshold = slowCallRateThreshold; }
+
+        public long getWaitDurationMs() { return waitDurationMs; }
+        public void setWaitDurationMs(long waitDurationMs) { this.waitDurationMs = waitDurationMs; }
+
+        public int getPermittedHalfOpenCalls() { return permittedHalfOpenCalls; }
+        public void setPermittedHalfOpenCalls(int permittedHalfOpenCalls) { this.permittedHalfOpenCalls = permittedHalfOpenCalls; }
+    }
+
+    public static class RoutingProps {
+        // 请求头指定本次用哪个模式（压测/对比用），不认识的值忽略
+        private boolean headerEnabled = true;
+        private String header = "X-Push-Mode";
+        // 按权重随机分模式，比如 blocking: 33, offload: 33, webclient: 34；空的话都用 push.mode
+        private Map<String, Integer> split = new LinkedHashMap<>();
+        // 各模式耗时超过它的单独计数（overTimeout），默认跟 trans.timeoutSeconds 一致
+        private long timeoutMs = 4000;
+        // POST /admin/push 运行时改模式/权重/池子大小
+        private boolean adminEnabled = true;
+
+        public boolean isHeaderEnabled() { return headerEnabled; }
+        public void setHeaderEnabled(boolean headerEnabled) { this.headerEnabled = headerEnabled; }
+
+        public String getHeader() { return header; }
+        public void setHeader(String header) { this.header = header; }
+
+        public Map<String, Integer> getSplit() { return split; }
+        public void setSplit(Map<String, Integer> split) { this.split = split; }
+
+        public long getTimeoutMs() { return timeoutMs; }
+        public void setTimeoutMs(long timeoutMs) { this.timeoutMs = timeoutMs; }
+
+        public boolean isAdminEnabled() { return adminEnabled; }
+        public void setAdminEnabled(boolean adminEnabled) { this.adminEnabled = adminEnabled; }
     }
 }
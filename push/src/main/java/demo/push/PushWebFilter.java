@@ -7,11 +7,26 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.server.*;
 
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /push 的入口计时：每个请求都记进 PushMetrics（mode（ModeRouter 选的）/ 状态码 / outcome / 完成线程），
+ * PUSH_HTTP start/end 日志只对抽中的请求打（push.log.sampleRate）。
+ */
 @Component
 public class PushWebFilter implements WebFilter {
     private static final Logger log = LoggerFactory.getLogger(PushWebFilter.class);
 
+    private final PushMetrics metrics;
+    private final ModeRouter modeRouter;
+
+    public PushWebFilter(PushMetrics metrics, ModeRouter modeRouter) {
+        this.metrics = metrics;
+        this.modeRouter = modeRouter;
+    }
+
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
         ServerHttpRequest req = exchange.getRequest();
@@ -21,19 +36,27 @@ public class PushWebFilter implements WebFilter {
             return chain.filter(exchange);
         }
 
-        final long start = System.currentTimeMillis();
-        final String method = req.getMethodValue();
-        final String path = req.getURI().getPath();
+        final PushMetrics.Sample sample = metrics.start(exchange, modeRouter.resolve(exchange));
 
-        log.info("PUSH_HTTP start method={} path={} thread={}",
-                method, path, Thread.currentThread().getName());
+        if (sample.isLogged()) {
+            log.info("PUSH_HTTP start method={} path={} thread={}",
+                    req.getMethodValue(), req.getURI().getPath(), Thread.currentThread().getName());
+        }
 
         return chain.filter(exchange)
                 .doFinally(sig -> {
-                    long cost = System.currentTimeMillis() - start;
                     int status = exchange.getResponse().getStatusCode() == null ? 0 : exchange.getResponse().getStatusCode().value();
-                    log.info("PUSH_HTTP end method={} path={} status={} costMs={} thread={}",
-                            method, path, status, cost, Thread.currentThread().getName());
+                    int fallback = sig == SignalType.CANCEL ? PushMetrics.OUTCOME_CANCELLED
+                            : sig == SignalType.ON_ERROR || status >= 400 ? PushMetrics.OUTCOME_ERROR
+                            : PushMetrics.OUTCOME_OK;
+                    metrics.finish(sample, status, fallback);
+
+                    if (sample.isLogged()) {
+                        log.info("PUSH_HTTP end method={} path={} status={} costMs={} thread={}",
+                                req.getMethodValue(), req.getURI().getPath(), status,
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sample.startNanos),
+                                Thread.currentThread().getName());
+                    }
                 });
     }
 }
@@ -0,0 +1,140 @@
+package demo.push;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Signal;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 按 reqId 合并对 order 的调用（single-flight）：
+ * - 同一个 reqId 正在调用 order 时，重复请求直接挂到在途的 Mono 上，不再新开一个 order 连接
+ * - 调用成功后结果缓存 resultTtlMs，迟到的重复请求直接用缓存结果，不调 order
+ * 在途的调用按订阅者计数共享（publish().refCount(1)）：等待者都取消了（过了截止时间、客户端断开）就取消 order 调用，
+ * WebClient 连接、limiter 名额和还在排队的 offload 任务随之释放；调用结束后只留下终止信号，从 inflight 拿到它、
+ * 但在调用结束后才订阅的请求拿到同一个结果（或同一个错误），不会再触发一次 order 调用。
+ * 失败不缓存；结果缓存最多 maxCachedResults 条，满了按最近最少使用淘汰。
+ */
+@Component
+public class SingleFlight {
+
+    public static final String SOURCE_ORDER = "order";
+    public static final String SOURCE_INFLIGHT = "inflight";
+    public static final String SOURCE_CACHE = "cache";
+
+    private final PushProperties props;
+
+    private final Map<String, Mono<Map<String, Object>>> inflight = new ConcurrentHashMap<>();
+    private final Map<String, Completed> completed;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong inflightHits = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    public SingleFlight(PushProperties props) {
+        this.props = props;
+        // 访问顺序的 LinkedHashMap = LRU；get 也会改链表，所以整个包一层同步
+        this.completed = Collections.synchronizedMap(new LinkedHashMap<String, Completed>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Completed> eldest) {
+                return size() > Math.max(0, props.getSingleFlight().getMaxCachedResults());
+            }
+        });
+    }
+
+    public Flight join(String reqId, Supplier<Mono<Map<String, Object>>> call) {
+        PushProperties.SingleFlightProps sp = props.getSingleFlight();
+        if (!sp.isEnabled() || reqId == null || "NA".equals(reqId)) {
+            return new Flight(call.get(), SOURCE_ORDER);
+        }
+
+        Completed done = completed.get(reqId);
+        if (done != null && done.expiresAtMs > System.currentTimeMillis()) {
+            cacheHits.incrementAndGet();
+            return new Flight(Mono.just(done.orderResp), SOURCE_CACHE);
+        }
+
+        Mono<Map<String, Object>> existing = inflight.get(reqId);
+        if (existing != null) {
+            inflightHits.incrementAndGet();
+            return new Flight(existing, SOURCE_INFLIGHT);
+        }
+
+        AtomicReference<Mono<Map<String, Object>>> self = new AtomicReference<>();
+        AtomicReference<Signal<Map<String, Object>>> terminal = new AtomicReference<>();
+        Mono<Map<String, Object>> running = Mono.fromDirect(Mono.defer(call)
+                .doOnEach(sig -> {
+                    if (!sig.isOnSubscribe()) terminal.compareAndSet(null, sig);
+                })
+                .doOnNext(resp -> remember(reqId, resp, sp))
+                .doFinally(sig -> inflight.remove(reqId, self.get()))
+                .flux()
+                .publish()
+                .refCount(1));
+        // 已经结束的直接回放终止信号；被取消的没有终止信号，再订阅就重新调 order
+        Mono<Map<String, Object>> shared = Mono.defer(() -> {
+            Signal<Map<String, Object>> last = terminal.get();
+            if (last == null) return running;
+            if (last.isOnNext()) return Mono.just(last.get());
+            if (last.isOnError()) return Mono.error(last.getThrowable());
+            return Mono.empty();
+        });
+        self.set(shared);
+
+        Mono<Map<String, Object>> raced = inflight.putIfAbsent(reqId, shared);
+        if (raced != null) {
+            inflightHits.incrementAndGet();
+            return new Flight(raced, SOURCE_INFLIGHT);
+        }
+        calls.incrementAndGet();
+        return new Flight(shared, SOURCE_ORDER);
+    }
+
+    private void remember(String reqId, Map<String, Object> resp, PushProperties.SingleFlightProps sp) {
+        if (sp.getResultTtlMs() <= 0 || sp.getMaxCachedResults() <= 0) return;
+        completed.put(reqId, new Completed(resp, System.currentTimeMillis() + sp.getResultTtlMs()));
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        completed.values().removeIf(c -> c.expiresAtMs <= now);
+    }
+
+    /** [orderCalls, inflightHits, cacheHits, inflightKeys, cachedKeys] */
+    public long[] stats() {
+        return new long[]{calls.get(), inflightHits.get(), cacheHits.get(), inflight.size(), completed.size()};
+    }
+
+    public static final class Flight {
+        private final Mono<Map<String, Object>> orderResp;
+        private final String source;
+
+        Flight(Mono<Map<String, Object>> orderResp, String source) {
+            this.orderResp = orderResp;
+            this.source = source;
+        }
+
+        public Mono<Map<String, Object>> orderResp() { return orderResp; }
+
+        /** order / inflight / cache */
+        public String source() { return source; }
+    }
+
+    private static final class Completed {
+        final Map<String, Object> orderResp;
+        final long expiresAtMs;
+
+        Completed(Map<String, Object> orderResp, long expiresAtMs) {
+            this.orderResp = orderResp;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package demo.push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的线程采样（替代 jstack_watch.sh + analyze_jstack.py）：
+ * 每 intervalMs 用 ThreadMXBean 取一次关心的线程池（按线程名前缀）的状态和栈，不 fork jstack、不整进程 dump。
+ * - 每个线程归到 pool × state × activity，activity 跟 analyze_jstack.py 的判断一致：
+ *   rest_template（栈里有 RestTemplate.exchange）/ socket_read（socketRead0、等响应头）/ idle（epoll 等待、队列 take）/ other
+ *   最近一次采样作为 push_threads gauge，HttpPoolLogger 输出 THREAD_SAMPLE
+ * - 栈累计成 flame graph 的 collapsed 格式（pool;最外层帧;...;栈顶 次数），每 flushIntervalSeconds 覆盖写一次文件，
+ *   可以直接喂 flamegraph.pl / speedscope
+ * virtual thread 不在 ThreadMXBean 里，push.mode=virtual 时看不到调用 order 的那部分。
+ */
+@Component
+public class ThreadSampler {
+    private static final Logger log = LoggerFactory.getLogger(ThreadSampler.class);
+
+    static final String REST_TEMPLATE = "rest_template";
+    static final String SOCKET_READ = "socket_read";
+    static final String IDLE = "idle";
+    static final String OTHER = "other";
+
+    private static final Map<String, Integer> ACTIVITY_SLOTS = new HashMap<>();
+
+    static {
+        ACTIVITY_SLOTS.put(REST_TEMPLATE, 1);
+        ACTIVITY_SLOTS.put(SOCKET_READ, 2);
+        ACTIVITY_SLOTS.put(IDLE, 3);
+        ACTIVITY_SLOTS.put(OTHER, 4);
+    }
+
+    // collapsed 文件里最多保留多少种不同的栈，超出的计到 [truncated]
+    private static final int MAX_STACKS = 20000;
+
+    private final PushProperties props;
+    private final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+
+    private ScheduledExecutorService ticker;
+    private String[] pools = new String[0];
+
+    // 只有采样线程写；输出时读快照
+    private final Map<String, long[]> collapsed = new HashMap<>();
+    private volatile Map<String, Integer> latest = new TreeMap<>();
+    private volatile Map<String, int[]> latestSummary = new LinkedHashMap<>();
+    private long samples;
+
+    public ThreadSampler(PushProperties props, PushMetrics metrics) {
+        this.props = props;
+        metrics.gauge("push_threads", "threads of the sampled pools in the latest sample, by pool, state and activity",
+                () -> latest);
+    }
+
+    @PostConstruct
+    public void start() {
+        PushProperties.SamplerProps sp = props.getSampler();
+        if (!sp.isEnabled()) return;
+
+        List<String> list = new ArrayList<>();
+        for (String p : sp.getPools().split(",")) {
+            if (!p.trim().isEmpty()) list.add(p.trim());
+        }
+        pools = list.toArray(new String[0]);
+
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "push-thread-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, sp.getIntervalMs());
+        ticker.scheduleAtFixedRate(this::sampleSafely, interval, interval, TimeUnit.MILLISECONDS);
+        long flush = Math.max(1, sp.getFlushIntervalSeconds());
+        ticker.scheduleWithFixedDelay(this::flushSafely, flush, flush, TimeUnit.SECONDS);
+        log.info("THREAD_SAMPLE init pools={} intervalMs={} collapsedFile={}", list, interval, sp.getCollapsedFile());
+    }
+
+    private void sampleSafely() {
+        try {
+            sample();
+        } catch (Throwable t) {
+            log.warn("THREAD_SAMPLE failed: {}", t.toString());
+        }
+    }
+
+    private void sample() {
+        PushProperties.SamplerProps sp = props.getSampler();
+
+        // 先不带栈拿名字（便宜），只对命中的线程取栈
+        long[] ids = mx.getAllThreadIds();
+        ThreadInfo[] named = mx.getThreadInfo(ids, 0);
+        long[] picked = new long[ids.length];
+        int n = 0;
+        for (ThreadInfo ti : named) {
+            if (ti != null && poolOf(ti.getThreadName()) != null) picked[n++] = ti.getThreadId();
+        }
+        if (n == 0) return;
+        long[] pickedIds = new long[n];
+        System.arraycopy(picked, 0, pickedIds, 0, n);
+
+        Map<String, Integer> counts = new TreeMap<>();
+        Map<String, int[]> summary = new LinkedHashMap<>();
+        for (ThreadInfo ti : mx.getThreadInfo(pickedIds, Math.max(1, sp.getMaxDepth()))) {
+            if (ti == null) continue;
+            String pool = poolOf(ti.getThreadName());
+            if (pool == null) continue;
+            StackTraceElement[] stack = ti.getStackTrace();
+            String activity = activityOf(stack);
+
+            String key = "pool=\"" + pool + "\",state=\"" + ti.getThreadState() + "\",activity=\"" + activity + "\"";
+            counts.merge(key, 1, Integer::sum);
+            int[] c = summary.computeIfAbsent(pool, k -> new int[5]);
+            c[0]++;
+            c[ACTIVITY_SLOTS.get(activity)]++;
+
+            if (!IDLE.equals(activity) || sp.isIncludeIdle()) {
+                addCollapsed(pool, stack);
+            }
+        }
+        latest = counts;
+        latestSummary = summary;
+        samples++;
+    }
+
+    private String poolOf(String threadName) {
+        for (String p : pools) {
+            if (threadName.startsWith(p)) return p;
+        }
+        return null;
+    }
+
+    static String activityOf(StackTraceElement[] stack) {
+        boolean socketRead = false;
+        for (StackTraceElement e : stack) {
+            String cls = e.getClassName();
+            String m = e.getMethodName();
+            if ("org.springframework.web.client.RestTemplate".equals(cls) && "exchange".equals(m)) return REST_TEMPLATE;
+            if ("socketRead0".equals(m) || "receiveResponseHeader".equals(m)
+                    || ("org.apache.http.impl.conn.DefaultHttpResponseParser".equals(cls) && "parseHead".equals(m))) {
+                socketRead = true;
+            }
+        }
+        if (socketRead) return SOCKET_READ;
+        if (stack.length > 0 && isIdleTop(stack)) return IDLE;
+        return OTHER;
+    }
+
+    // 栈顶是 epoll/select 等待，或者在线程池队列上 take/poll
+    private static boolean isIdleTop(StackTraceElement[] stack) {
+        String top = stack[0].getMethodName();
+        if (top.startsWith("epollWait") || "poll0".equals(top) || "select".equals(top) || top.startsWith("epoll")) {
+            return true;
+        }
+        for (int i = 0; i < Math.min(stack.length, 8); i++) {
+            String cls = stack[i].getClassName();
+            String m = stack[i].getMethodName();
+            if (cls.contains("Queue") && ("take".equals(m) || "poll".equals(m))) return true;
+        }
+        return false;
+    }
+
+    private void addCollapsed(String pool, StackTraceElement[] stack) {
+        StringBuilder sb = new StringBuilder(pool.length() + stack.length * 48);
+        sb.append(pool);
+        for (int i = stack.length - 1; i >= 0; i--) {
+            sb.append(';').append(stack[i].getClassName()).append('.').append(stack[i].getMethodName());
+        }
+        String key = sb.toString();
+        long[] c = collapsed.get(key);
+        if (c == null) {
+            if (collapsed.size() >= MAX_STACKS) key = pool + ";[truncated]";
+            c = collapsed.computeIfAbsent(key, k -> new long[1]);
+        }
+        c[0]++;
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (IOException e) {
+            log.warn("THREAD_SAMPLE cannot write {}: {}", props.getSampler().getCollapsedFile(), e.toString());
+        }
+    }
+
+    /** 全量覆盖写（累计值）：先写临时文件再 rename，读的人不会看到半个文件 */
+    private void flush() throws IOException {
+        String file = props.getSampler().getCollapsedFile();
+        if (file == null || file.trim().isEmpty() || collapsed.isEmpty()) return;
+        Path path = Paths.get(file.trim()).toAbsolutePath();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, long[]> e : collapsed.entrySet()) {
+                w.write(e.getKey());
+                w.write(' ');
+                w.write(Long.toString(e.getValue()[0]));
+                w.write('\n');
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** 最近一次采样按 pool 汇总：pool → {threads, rest_template, socket_read, idle, other} */
+    public Map<String, int[]> summary() {
+        return latestSummary;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker == null) return;
+        ticker.shutdownNow();
+        try {
+            ticker.awaitTermination(1, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("THREAD_SAMPLE cannot write {}: {}", props.getSampler().getCollapsedFile(), e.toString());
+        }
+        log.info("THREAD_SAMPLE stopped samples={} stacks={}", samples, collapsed.size());
+    }
+}
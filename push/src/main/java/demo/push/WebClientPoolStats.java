@@ -0,0 +1,173 @@
+package demo.push;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.ConnectionObserver;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.SocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebClient（reactor-netty）连接池的统计，对应 Apache 池的 cm.getTotalStats()：
+ * reactor-netty 0.9 的池指标只接 Micrometer，这里自己从连接事件上数：
+ * - connections：打开着的 TCP 连接（第一次 connected 计入，channel 关闭减掉）
+ * - active：已经借出去在用的（acquire 拿到 +1，released 或者连接关了 -1）
+ * - pending：排队等连接的 acquire
+ * - 取连接的等待时间和失败数（pending 队列满 / 等超时）是区间值，HttpPoolLogger 每次输出时取走
+ */
+@Component
+public class WebClientPoolStats {
+
+    private static final AttributeKey<Boolean> COUNTED = AttributeKey.valueOf("demo.push.poolCounted");
+    // 这条连接当前借出去的次数（0/1）；池子可能先把还回来的连接交给下一个等待者、再通知 RELEASED，所以按次数加减
+    private static final AttributeKey<AtomicInteger> LEASES = AttributeKey.valueOf("demo.push.poolLeases");
+
+    private final PushProperties props;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong acquireWaitNanos = new AtomicLong();
+    private final AtomicLong acquireWaitMaxNanos = new AtomicLong();
+    private final AtomicLong acquireFailed = new AtomicLong();
+
+    public WebClientPoolStats(PushProperties props, PushMetrics metrics) {
+        this.props = props;
+        metrics.gauge("push_webclient_pool_connections", "WebClient (reactor-netty) pool connections by state", () -> {
+            int conns = connections.get();
+            int act = active.get();
+            Map<String, Integer> out = new LinkedHashMap<>();
+            out.put("state=\"active\"", act);
+            out.put("state=\"idle\"", Math.max(0, conns - act));
+            out.put("state=\"pending\"", pending.get());
+            out.put("state=\"max\"", props.getWebclient().getMaxConnections());
+            return out;
+        });
+    }
+
+    /**
+     * 包一层连接池：acquire 从订阅到拿到连接之间算 pending（HttpClient 层的 connect 要等响应结束才完成，量不到取连接的时间）
+     */
+    public ConnectionProvider instrument(ConnectionProvider delegate) {
+        return new ConnectionProvider() {
+            @Override
+            public Mono<? extends Connection> acquire(Bootstrap bootstrap) {
+                return Mono.defer(() -> {
+                    final long start = System.nanoTime();
+                    final AtomicBoolean waiting = new AtomicBoolean(true);
+                    pending.incrementAndGet();
+                    return delegate.acquire(bootstrap)
+                            .doOnNext(conn -> {
+                                if (waiting.compareAndSet(true, false)) pending.decrementAndGet();
+                                onAcquired(conn, System.nanoTime() - start);
+                            })
+                            .doOnError(e -> acquireFailed.incrementAndGet())
+                            // 失败或者还没拿到连接就被取消（比如对冲输了）
+                            .doFinally(sig -> {
+                                if (waiting.compareAndSet(true, false)) pending.decrementAndGet();
+                            });
+                });
+            }
+
+            @Override
+            public void disposeWhen(SocketAddress address) {
+                delegate.disposeWhen(address);
+            }
+
+            @Override
+            public void dispose() {
+                delegate.dispose();
+            }
+
+            @Override
+            public Mono<Void> disposeLater() {
+                return delegate.disposeLater();
+            }
+
+            @Override
+            public boolean isDisposed() {
+                return delegate.isDisposed();
+            }
+
+            // 0.9.5 里已经标了 @Deprecated，接口还在就照样转发
+            @Override
+            @Deprecated
+            @SuppressWarnings("deprecation")
+            public int maxConnections() {
+                return delegate.maxConnections();
+            }
+        };
+    }
+
+    /** 连接还回池子时减 active */
+    public HttpClient instrument(HttpClient client) {
+        return client.observe((conn, state) -> {
+            if (state == ConnectionObserver.State.RELEASED) release(conn.channel());
+        });
+    }
+
+    private void onAcquired(Connection conn, long waitNanos) {
+        acquired.incrementAndGet();
+        acquireWaitNanos.addAndGet(waitNanos);
+        acquireWaitMaxNanos.accumulateAndGet(waitNanos, Math::max);
+
+        Channel ch = conn.channel();
+        if (ch.attr(COUNTED).setIfAbsent(Boolean.TRUE) == null) {
+            connections.incrementAndGet();
+            ch.closeFuture().addListener(f -> {
+                AtomicInteger leases = ch.attr(LEASES).get();
+                if (leases != null) active.addAndGet(-leases.getAndSet(0));
+                connections.decrementAndGet();
+            });
+        }
+        AtomicInteger fresh = new AtomicInteger();
+        AtomicInteger leases = ch.attr(LEASES).setIfAbsent(fresh);
+        if (leases == null) leases = fresh;
+        leases.incrementAndGet();
+        active.incrementAndGet();
+    }
+
+    // 连接关掉时已经整笔减过的，后到的 RELEASED 不再减
+    private void release(Channel ch) {
+        AtomicInteger leases = ch.attr(LEASES).get();
+        if (leases == null) return;
+        int n;
+        do {
+            n = leases.get();
+            if (n <= 0) return;
+        } while (!leases.compareAndSet(n, n - 1));
+        active.decrementAndGet();
+    }
+
+    /** 这个区间有没有在用（没走 webclient 的模式不输出） */
+    public boolean isUsed() {
+        return connections.get() > 0 || acquired.get() > 0 || acquireFailed.get() > 0;
+    }
+
+    /** [connections, active, pending, max] */
+    public int[] snapshot() {
+        return new int[]{connections.get(), active.get(), pending.get(), props.getWebclient().getMaxConnections()};
+    }
+
+    /** 取走区间统计：[acquired, acquireAvgMs, acquireMaxMs, acquireFailed] */
+    public long[] drainStats() {
+        long n = acquired.getAndSet(0);
+        long sum = acquireWaitNanos.getAndSet(0);
+        long max = acquireWaitMaxNanos.getAndSet(0);
+        long failed = acquireFailed.getAndSet(0);
+        return new long[]{n, n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(sum / n), TimeUnit.NANOSECONDS.toMillis(max), failed};
+    }
+}
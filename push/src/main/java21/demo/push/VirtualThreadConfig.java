@@ -0,0 +1,27 @@
+package demo.push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+/**
+ * 只在 jdk21 profile 下编译进来（src/main/java21）。
+ * 提供 push.mode=virtual 使用的 virtual-thread-per-task 调度器。
+ */
+@Configuration
+public class VirtualThreadConfig {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    @Bean(name = "virtualScheduler", destroyMethod = "dispose")
+    public Scheduler virtualScheduler() {
+        log.info("VIRTUAL scheduler init (virtual-thread-per-task)");
+        // 线程名带前缀，jstack / pushEndThread 里能直接区分
+        return Schedulers.fromExecutorService(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("push-virtual-", 0).factory()));
+    }
+}
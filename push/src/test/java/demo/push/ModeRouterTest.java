@@ -0,0 +1,62 @@
+package demo.push;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * 没有 virtualScheduler 的构建里，请求头和分流都选不到 virtual，落回 push.mode。
+ */
+public class ModeRouterTest {
+
+    private PushProperties props;
+
+    @Before
+    public void setUp() {
+        props = new PushProperties();
+        props.setMode("offload");
+        props.getRouting().setHeaderEnabled(true);
+    }
+
+    private ModeRouter router(Scheduler virtualScheduler) {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        if (virtualScheduler != null) beans.addBean("virtualScheduler", virtualScheduler);
+        return new ModeRouter(props, beans.getBeanProvider(Scheduler.class));
+    }
+
+    private MockServerWebExchange exchange(String mode) {
+        MockServerHttpRequest.BaseBuilder<?> req = MockServerHttpRequest.post("/push");
+        if (mode != null) req.header(props.getRouting().getHeader(), mode);
+        return MockServerWebExchange.from(req);
+    }
+
+    @Test
+    public void virtualHeaderFallsBackWithoutScheduler() {
+        ModeRouter router = router(null);
+        assertFalse(router.isAvailable("virtual"));
+        assertEquals("offload", router.resolve(exchange("virtual")));
+        assertEquals("webclient", router.resolve(exchange("WebClient")));
+    }
+
+    @Test
+    public void virtualSplitFallsBackWithoutScheduler() {
+        ModeRouter router = router(null);
+        router.setSplit(Collections.singletonMap("virtual", 1));
+        assertEquals("offload", router.resolve(exchange(null)));
+    }
+
+    @Test
+    public void virtualHeaderHonouredWithScheduler() {
+        ModeRouter router = router(Schedulers.immediate());
+        assertEquals("virtual", router.resolve(exchange("virtual")));
+    }
+}
@@ -0,0 +1,118 @@
+package demo.push;
+
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 请求自己的截止时间用完导致的超时不能把健康的 order 实例摘掉；没有截止时间的同样超时照常摘。
+ */
+public class OrderBalancerTest {
+
+    private static final String A = "http://order-a";
+    private static final String B = "http://order-b";
+
+    private PushProperties props;
+    private OrderBalancer balancer;
+
+    @Before
+    public void setUp() {
+        props = new PushProperties();
+        props.setOrderBaseUrls(Arrays.asList(A, B));
+        props.getBalancer().setStrategy(OrderBalancer.ROUND_ROBIN);
+        props.getBalancer().setConsecutiveFailures(3);
+        PushMetrics metrics = new PushMetrics(props);
+        balancer = new OrderBalancer(props, metrics, new OrderCircuitBreaker(props, metrics));
+    }
+
+    @Test
+    public void deadlineDrivenTimeoutDoesNotEject() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            long deadlineMs = System.currentTimeMillis() + 5;
+            try {
+                balancer.execute(deadlineMs, baseUrl -> {
+                    // socket 超时被压到剩余预算：等到截止时间之后才超时
+                    Thread.sleep(15);
+                    throw new ResourceAccessException("Read timed out", new SocketTimeoutException("Read timed out"));
+                });
+            } catch (ResourceAccessException expected) {
+                // 预期
+            }
+        }
+        assertNoEjectionOrFailure();
+    }
+
+    @Test
+    public void deadlineDrivenReactiveTimeoutDoesNotEject() {
+        for (int i = 0; i < 10; i++) {
+            long deadlineMs = System.currentTimeMillis() + 5;
+            Mono<Object> call = balancer.call(deadlineMs, baseUrl ->
+                    Mono.delay(Duration.ofMillis(15)).then(Mono.error(ReadTimeoutException.INSTANCE)));
+            try {
+                call.block();
+            } catch (RuntimeException expected) {
+                // 预期
+            }
+        }
+        assertNoEjectionOrFailure();
+    }
+
+    @Test
+    public void deadlineExceededAndOrder504AreNeutral() {
+        for (int i = 0; i < 10; i++) {
+            long deadlineMs = System.currentTimeMillis() - 1;
+            RuntimeException err = i % 2 == 0
+                    ? new Deadline.ExceededException(deadlineMs)
+                    : WebClientResponseException.create(504, "Gateway Timeout", HttpHeaders.EMPTY,
+                    new byte[0], StandardCharsets.UTF_8);
+            try {
+                balancer.call(baseUrl -> Mono.error(err)).block();
+            } catch (RuntimeException expected) {
+                // 预期
+            }
+        }
+        assertNoEjectionOrFailure();
+    }
+
+    @Test
+    public void timeoutWithoutDeadlineStillEjects() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            try {
+                balancer.execute(0, baseUrl -> {
+                    throw new ResourceAccessException("Read timed out", new SocketTimeoutException("Read timed out"));
+                });
+            } catch (ResourceAccessException expected) {
+                // 预期
+            }
+        }
+        long ejected = 0;
+        for (long[] s : balancer.drainStats().values()) ejected += s[4];
+        // 两个实例最多摘一个（maxEjectionPercent=50）
+        assertEquals(1, ejected);
+    }
+
+    private void assertNoEjectionOrFailure() {
+        Map<String, long[]> stats = balancer.drainStats();
+        assertEquals(2, stats.size());
+        for (Map.Entry<String, long[]> e : stats.entrySet()) {
+            long[] s = e.getValue();
+            assertTrue(e.getKey() + " should have been called", s[2] > 0);
+            assertEquals(e.getKey() + " failures", 0, s[3]);
+            assertEquals(e.getKey() + " ejected", 0, s[4]);
+            assertEquals(e.getKey() + " ejectionsTotal", 0, s[5]);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package demo.push;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 在途批次占满时攒好的批次排队而不是把流水线弄死；调用方已经取消的请求不再发给 order；
+ * order 按截止时间回 504 时每条都按截止时间失败。
+ */
+public class OrderBatcherTest {
+
+    private PushProperties props;
+    private OrderBatcher batcher;
+    private final AtomicInteger batchCalls = new AtomicInteger();
+    private volatile HttpStatus status = HttpStatus.OK;
+
+    @Before
+    public void setUp() {
+        props = new PushProperties();
+        props.setOrderBaseUrl("http://order-a");
+        PushProperties.BatchProps bp = props.getBatch();
+        bp.setMaxItems(1);
+        bp.setMaxWaitMs(1);
+        bp.setMaxConcurrentBatches(1);
+    }
+
+    @After
+    public void tearDown() {
+        if (batcher != null) batcher.shutdown();
+    }
+
+    private OrderBatcher batcher(long delayMs) {
+        // 假的 order：每批等 delayMs 再回，回 100 条 ok（多出来的 OrderBatcher 不看）；status 不是 200 时
+        // 像 order 过了截止时间那样回一个对象
+        String ok = "[" + String.join(",", Collections.nCopies(100, "{\"ok\":true}")) + "]";
+        WebClient webClient = WebClient.builder().exchangeFunction(req -> {
+            batchCalls.incrementAndGet();
+            return Mono.delay(Duration.ofMillis(delayMs)).map(t -> ClientResponse.create(status)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .body(status == HttpStatus.OK ? ok : "{\"ok\":false,\"reason\":\"deadline exceeded\"}")
+                    .build());
+        }).build();
+        PushMetrics metrics = new PushMetrics(props);
+        OrderBalancer balancer = new OrderBalancer(props, metrics, new OrderCircuitBreaker(props, metrics));
+        batcher = new OrderBatcher(props, webClient, balancer);
+        return batcher;
+    }
+
+    @Test
+    public void fullConcurrencyQueuesBatchesInsteadOfDying() throws Exception {
+        // 按 maxWaitMs 定时出批，唯一的在途批次还没回来时下一批就到了
+        props.getBatch().setMaxItems(100);
+        batcher(20);
+        List<Mono<Map<String, Object>>> calls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Mono<Map<String, Object>> call = batcher.submit(Collections.singletonMap("i", i), 0).cache();
+            call.subscribe(r -> { }, e -> { });
+            calls.add(call);
+            Thread.sleep(3);
+        }
+        List<Map<String, Object>> resps = Flux.merge(calls).collectList().block(Duration.ofSeconds(10));
+        assertEquals(20, resps.size());
+
+        // 流水线还活着
+        assertEquals(Boolean.TRUE, batcher.submit(Collections.singletonMap("i", 20), 0)
+                .block(Duration.ofSeconds(5)).get("ok"));
+    }
+
+    @Test
+    public void cancelledSubmitIsNotSent() throws Exception {
+        batcher(200);
+        // 第一条占住唯一的在途批次
+        Disposable first = batcher.submit(Collections.singletonMap("i", 0), 0).subscribe();
+        Thread.sleep(50);
+        Disposable second = batcher.submit(Collections.singletonMap("i", 1), 0).subscribe();
+        second.dispose();
+        Thread.sleep(400);
+        assertEquals(1, batchCalls.get());
+        first.dispose();
+    }
+
+    @Test
+    public void order504FailsEachItemAsDeadlineExceeded() {
+        status = HttpStatus.GATEWAY_TIMEOUT;
+        props.getBatch().setMaxItems(2);
+        batcher(0);
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        Mono<Map<String, Object>> a = batcher.submit(Collections.singletonMap("i", 0), deadlineMs);
+        Mono<Map<String, Object>> b = batcher.submit(Collections.singletonMap("i", 1), deadlineMs);
+        for (Mono<Map<String, Object>> call : Arrays.asList(a, b)) {
+            try {
+                call.block(Duration.ofSeconds(5));
+                fail("expected ExceededException");
+            } catch (Deadline.ExceededException expected) {
+                // 预期
+            }
+        }
+    }
+}
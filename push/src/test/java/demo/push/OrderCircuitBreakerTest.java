@@ -0,0 +1,102 @@
+package demo.push;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 截止时间用完造成的失败不计入熔断窗口，熔断器保持 CLOSED；没有截止时间的同样失败照常熔断。
+ */
+public class OrderCircuitBreakerTest {
+
+    private static final String ORDER = "http://order-a";
+
+    private OrderCircuitBreaker breaker;
+    private OrderBalancer balancer;
+
+    @Before
+    public void setUp() {
+        PushProperties props = new PushProperties();
+        props.setOrderBaseUrl(ORDER);
+        PushProperties.BreakerProps b = props.getBreaker();
+        b.setEnabled(true);
+        b.setWindowSize(10);
+        b.setMinimumCalls(5);
+        PushMetrics metrics = new PushMetrics(props);
+        breaker = new OrderCircuitBreaker(props, metrics);
+        balancer = new OrderBalancer(props, metrics, breaker);
+    }
+
+    @Test
+    public void deadlineDrivenTimeoutsLeaveBreakerClosed() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            long deadlineMs = System.currentTimeMillis() + 5;
+            try {
+                balancer.execute(deadlineMs, baseUrl -> {
+                    // socket 超时被压到剩余预算：等到截止时间之后才超时
+                    Thread.sleep(15);
+                    throw new ResourceAccessException("Read timed out", new SocketTimeoutException("Read timed out"));
+                });
+            } catch (ResourceAccessException expected) {
+                // 预期
+            }
+        }
+        assertClosedAndEmpty();
+    }
+
+    @Test
+    public void deadlineExceededAndOrder504LeaveBreakerClosed() {
+        for (int i = 0; i < 20; i++) {
+            long deadlineMs = System.currentTimeMillis() - 1;
+            RuntimeException err = i % 2 == 0
+                    ? new Deadline.ExceededException(deadlineMs)
+                    : WebClientResponseException.create(504, "Gateway Timeout", HttpHeaders.EMPTY,
+                    new byte[0], StandardCharsets.UTF_8);
+            try {
+                balancer.call(deadlineMs, baseUrl -> Mono.error(err)).block();
+            } catch (OrderCircuitBreaker.OpenException e) {
+                fail("breaker opened on deadline-exceeded results");
+            } catch (RuntimeException expected) {
+                // 预期
+            }
+        }
+        assertClosedAndEmpty();
+    }
+
+    @Test
+    public void timeoutsWithoutDeadlineOpenBreaker() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            try {
+                balancer.execute(0, baseUrl -> {
+                    throw new ResourceAccessException("Read timed out", new SocketTimeoutException("Read timed out"));
+                });
+            } catch (ResourceAccessException expected) {
+                // 预期
+            }
+        }
+        assertEquals(OrderCircuitBreaker.OPEN, breaker.stats().get(ORDER)[0]);
+        try {
+            balancer.execute(0, baseUrl -> "unreachable");
+            fail("expected OpenException");
+        } catch (OrderCircuitBreaker.OpenException expected) {
+            // 预期
+        }
+    }
+
+    private void assertClosedAndEmpty() {
+        long[] s = breaker.stats().get(ORDER);
+        assertEquals("state", OrderCircuitBreaker.CLOSED, s[0]);
+        assertEquals("calls recorded in window", 0, s[1]);
+        assertEquals("transitions to open", 0, s[4]);
+        assertEquals(0, breaker.rejected());
+    }
+}
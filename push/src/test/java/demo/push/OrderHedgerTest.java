@@ -0,0 +1,56 @@
+package demo.push;
+
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * 主请求很快失败时等对冲的结果；两边都失败才失败，错误是先失败的那个。
+ */
+public class OrderHedgerTest {
+
+    private OrderHedger hedger;
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        PushProperties props = new PushProperties();
+        PushProperties.HedgeProps hp = props.getHedge();
+        hp.setEnabled(true);
+        hp.setDelayMs(20);
+        hp.setBudgetPercent(100);
+        PushMetrics metrics = new PushMetrics(props);
+        hedger = new OrderHedger(props, metrics, new OrderLimiter(props, metrics));
+    }
+
+    @Test
+    public void fastPrimaryFailureWaitsForHedge() {
+        String resp = hedger.hedge(() -> attempts.getAndIncrement() == 0
+                ? Mono.<String>error(new IllegalStateException("primary"))
+                : Mono.just("hedge")).block(Duration.ofSeconds(5));
+        assertEquals("hedge", resp);
+        assertEquals(2, attempts.get());
+        assertEquals(1, hedger.stats()[2]);
+    }
+
+    @Test
+    public void failsOnlyWhenBothFail() {
+        IllegalStateException primary = new IllegalStateException("primary");
+        try {
+            hedger.hedge(() -> attempts.getAndIncrement() == 0
+                    ? Mono.<String>error(primary)
+                    : Mono.<String>error(new IllegalStateException("hedge"))).block(Duration.ofSeconds(5));
+            fail("expected both legs to fail");
+        } catch (IllegalStateException e) {
+            assertSame(primary, e);
+        }
+        assertEquals(2, attempts.get());
+    }
+}
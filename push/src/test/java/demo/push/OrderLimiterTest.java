@@ -0,0 +1,64 @@
+package demo.push;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 截止时间用完（ExceededException、order 504、过了截止时间被取消）算丢弃，上限下调；没过截止时间的取消记样本、不下调。
+ */
+public class OrderLimiterTest {
+
+    private OrderLimiter limiter;
+
+    @Before
+    public void setUp() {
+        PushProperties props = new PushProperties();
+        props.getLimiter().setEnabled(true);
+        limiter = new OrderLimiter(props, new PushMetrics(props));
+    }
+
+    @Test
+    public void deadlineExceededAndOrder504AreDrops() {
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        RuntimeException[] errors = {
+                new Deadline.ExceededException(deadlineMs),
+                WebClientResponseException.create(504, "Gateway Timeout", HttpHeaders.EMPTY,
+                        new byte[0], StandardCharsets.UTF_8)};
+        for (RuntimeException err : errors) {
+            try {
+                limiter.wrap(Mono.error(err), deadlineMs).block();
+            } catch (RuntimeException expected) {
+                // 预期
+            }
+        }
+        long[] s = limiter.stats();
+        assertEquals("dropped", 2, s[3]);
+        assertTrue("limit backed off", s[0] < 20);
+        assertEquals("inflight", 0, s[1]);
+    }
+
+    @Test
+    public void cancelPastDeadlineIsDropAndOtherwiseSample() throws Exception {
+        Disposable pastDeadline = limiter.wrap(Mono.never(), System.currentTimeMillis() + 5).subscribe();
+        Thread.sleep(10);
+        pastDeadline.dispose();
+        assertEquals("dropped", 1, limiter.stats()[3]);
+
+        Disposable clientGone = limiter.wrap(Mono.never(), 0).subscribe();
+        Thread.sleep(10);
+        clientGone.dispose();
+        long[] s = limiter.stats();
+        assertEquals("dropped", 1, s[3]);
+        assertTrue("sample recorded", s[4] >= 10);
+        assertEquals("inflight", 0, s[1]);
+    }
+}
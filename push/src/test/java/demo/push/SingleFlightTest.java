@@ -0,0 +1,88 @@
+package demo.push;
+
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在途调用结束后才订阅的重复请求不再调 order；等待者都取消了就取消 order 调用；
+ * 结果缓存满了按 LRU 淘汰，而不是不再缓存。
+ */
+public class SingleFlightTest {
+
+    private PushProperties props;
+    private SingleFlight singleFlight;
+    private final AtomicInteger orderCalls = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        props = new PushProperties();
+        props.getSingleFlight().setMaxCachedResults(2);
+        singleFlight = new SingleFlight(props);
+    }
+
+    private Mono<Map<String, Object>> order(String reqId) {
+        return Mono.fromSupplier(() -> {
+            orderCalls.incrementAndGet();
+            return Collections.<String, Object>singletonMap("reqId", reqId);
+        });
+    }
+
+    @Test
+    public void lateJoinerReusesFinishedCall() {
+        // 缓存关掉，只看在途合并
+        props.getSingleFlight().setResultTtlMs(0);
+        SingleFlight.Flight first = singleFlight.join("r1", () -> order("r1"));
+        SingleFlight.Flight joiner = singleFlight.join("r1", () -> order("r1"));
+        assertEquals(SingleFlight.SOURCE_INFLIGHT, joiner.source());
+
+        Map<String, Object> a = first.orderResp().block();
+        // 调用已经结束、从 inflight 里删掉之后才订阅
+        Map<String, Object> b = joiner.orderResp().block();
+        assertEquals(1, orderCalls.get());
+        assertSame(a, b);
+    }
+
+    @Test
+    public void fullCacheEvictsLeastRecentlyUsed() {
+        for (String reqId : new String[]{"r1", "r2"}) {
+            singleFlight.join(reqId, () -> order(reqId)).orderResp().block();
+        }
+        // 碰一下 r1，r2 成为最久没用的
+        assertEquals(SingleFlight.SOURCE_CACHE, singleFlight.join("r1", () -> order("r1")).source());
+        singleFlight.join("r3", () -> order("r3")).orderResp().block();
+
+        assertEquals(SingleFlight.SOURCE_CACHE, singleFlight.join("r3", () -> order("r3")).source());
+        assertEquals(SingleFlight.SOURCE_CACHE, singleFlight.join("r1", () -> order("r1")).source());
+        assertEquals(SingleFlight.SOURCE_ORDER, singleFlight.join("r2", () -> order("r2")).source());
+        assertEquals(2, singleFlight.stats()[4]);
+    }
+
+    @Test
+    public void lastWaiterCancellingCancelsOrderCall() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Mono<Map<String, Object>> slow = Mono.<Map<String, Object>>never().doOnCancel(() -> cancelled.set(true));
+        SingleFlight.Flight first = singleFlight.join("r1", () -> slow);
+        SingleFlight.Flight joiner = singleFlight.join("r1", () -> slow);
+
+        Disposable a = first.orderResp().subscribe();
+        Disposable b = joiner.orderResp().subscribe();
+        a.dispose();
+        assertFalse("still has a waiter", cancelled.get());
+        b.dispose();
+        assertTrue(cancelled.get());
+        // 取消后不再算在途，下一个请求重新调 order
+        assertEquals(SingleFlight.SOURCE_ORDER, singleFlight.join("r1", () -> order("r1")).source());
+    }
+}
@@ -13,7 +13,9 @@ Usage:
 Modes:
   blocking   --push.mode=blocking
   offload    --push.mode=offload
+  virtual    --push.mode=virtual   (push 需用 JDK 21 构建并运行)
   webclient  --push.mode=webclient
+  batch      --push.mode=batch     (order 走 POST /orders/batch)
 
 Examples:
   $(basename "$0") blocking
@@ -71,7 +73,7 @@ if [[ -z "$MODE" ]]; then
 fi
 
 case "$MODE" in
-  blocking|offload|webclient)
+  blocking|offload|virtual|webclient|batch)
     ;;
   -h|--help|help)
     usage
@@ -91,12 +93,12 @@ ORDER_CFG="$BASE_DIR/order-application.yml"
 PUSH_CFG="$BASE_DIR/push-application.yml"
 TRANS_CFG="$BASE_DIR/trans-application.yml"
 
-start_one "order" "$BASE_DIR/order/target/order-1.0.0.jar" "$BASE_DIR/order.log" "$ORDER_CFG"
+start_one "order" "$BASE_DIR/order/target/order-1.0.0-exec.jar" "$BASE_DIR/order.log" "$ORDER_CFG"
 sleep 1
 
-start_one "push"  "$BASE_DIR/push/target/push-1.0.0.jar"  "$BASE_DIR/push.log"  "$PUSH_CFG"  --push.mode="$MODE"
+start_one "push"  "$BASE_DIR/push/target/push-1.0.0-exec.jar"  "$BASE_DIR/push.log"  "$PUSH_CFG"  --push.mode="$MODE"
 sleep 1
 
-start_one "trans" "$BASE_DIR/trans/target/trans-1.0.0.jar" "$BASE_DIR/trans.log" "$TRANS_CFG"
+start_one "trans" "$BASE_DIR/trans/target/trans-1.0.0-exec.jar" "$BASE_DIR/trans.log" "$TRANS_CFG"
 
 echo "===== Done. Use ./status.sh to check, tail -f *.log to view logs ====="
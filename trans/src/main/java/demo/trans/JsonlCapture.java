@@ -0,0 +1,149 @@
+package demo.trans;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+
+/**
+ * 顺序读 JSONL 抓包文件（replay 模式用），一次只在内存里留一行，几个 GB 的文件也不会撑爆堆。
+ *
+ * 每行一个 JSON 对象，两种写法都行：
+ * - 整行就是请求体：{"reqId":"a1","amt":100,"ts":1700000000123}，原样发给 push（不重新序列化）
+ * - 外面包一层：{"ts":1700000000123,"body":{...}}，只发 body
+ * 时间戳字段名可配（默认 ts），数字按 epoch 毫秒，字符串按 ISO-8601；外层没有就去 body 里找，
+ * 都没有就跟上一行同一时刻。时间往回跳（抓包乱序）按上一行的时刻算，保证回放节奏单调。
+ */
+class JsonlCapture implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(JsonlCapture.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    static final class Record {
+        final long offsetMs;   // 相对第一行的毫秒数
+        final String reqId;    // 没有 reqId 时为 null
+        final String body;     // 原始 JSON 文本
+
+        Record(long offsetMs, String reqId, String body) {
+            this.offsetMs = offsetMs;
+            this.reqId = reqId;
+            this.body = body;
+        }
+    }
+
+    private final Path path;
+    private final String tsField;
+    private BufferedReader reader;
+
+    private long firstTsMs = Long.MIN_VALUE;
+    private long lastOffsetMs = 0;
+    private long lines = 0;
+    private long skipped = 0;
+
+    JsonlCapture(String file, String tsField) throws IOException {
+        this.path = Paths.get(file);
+        this.tsField = tsField;
+        this.reader = open();
+    }
+
+    /** 下一条记录，读完返回 null；解析不了的行跳过并计数 */
+    Record next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines++;
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            JsonNode node;
+            try {
+                node = MAPPER.readTree(line);
+            } catch (IOException e) {
+                if (skipped++ < 10) {
+                    log.warn("REPLAY skip line={} err={}", lines, e.getMessage());
+                }
+                continue;
+            }
+            if (node == null || !node.isObject()) {
+                skipped++;
+                continue;
+            }
+
+            JsonNode body = node.get("body");
+            String bodyText;
+            if (body != null && body.isObject()) {
+                bodyText = body.toString();
+            } else {
+                body = node;
+                bodyText = line;
+            }
+
+            Long ts = timestampMs(node.get(tsField));
+            if (ts == null && body != node) {
+                ts = timestampMs(body.get(tsField));
+            }
+            if (ts != null) {
+                if (firstTsMs == Long.MIN_VALUE) firstTsMs = ts;
+                lastOffsetMs = Math.max(lastOffsetMs, ts - firstTsMs);
+            }
+
+            JsonNode reqId = body.get("reqId");
+            return new Record(lastOffsetMs, reqId == null || reqId.isNull() ? null : reqId.asText(), bodyText);
+        }
+        return null;
+    }
+
+    /** 从头再读一遍（loop 用），时间基准重新从第一行算 */
+    void rewind() throws IOException {
+        reader.close();
+        reader = open();
+        firstTsMs = Long.MIN_VALUE;
+        lastOffsetMs = 0;
+    }
+
+    long lines() {
+        return lines;
+    }
+
+    long skipped() {
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private BufferedReader open() throws IOException {
+        return new BufferedReader(new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8), BUFFER_BYTES);
+    }
+
+    private static Long timestampMs(JsonNode v) {
+        if (v == null || v.isNull()) return null;
+        if (v.isNumber()) return v.asLong();
+        if (v.isTextual()) {
+            String s = v.asText().trim();
+            try {
+                return Long.parseLong(s);
+            } catch (NumberFormatException ignore) {
+                // 不是数字，按 ISO-8601 试一下
+            }
+            try {
+                return Instant.parse(s).toEpochMilli();
+            } catch (RuntimeException ignore) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
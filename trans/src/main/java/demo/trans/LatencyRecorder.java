@@ -0,0 +1,147 @@
+package demo.trans;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * trans 端的延迟统计：HdrHistogram Recorder（写入无锁，按区间切换读取），
+ * 每 intervalSeconds 输出一次 p50/p90/p99/p999/max、实际 QPS、超时/错误数；
+ * 关闭时输出全程汇总，并把每个区间写进 .hlog（可以用 HistogramLogAnalyzer 看，也能喂给 order 的 histogram 模型回放）。
+ *
+ * 直方图里记的是所有完成的请求（成功 + 超时 + 错误）的耗时，单位微秒。
+ */
+class LatencyRecorder {
+    private static final Logger log = LoggerFactory.getLogger(LatencyRecorder.class);
+
+    private final Recorder recorder = new Recorder(3);
+    private final Histogram total = new Histogram(3);
+    private Histogram interval;
+
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    // open-loop 下因为并发上限没发出去的请求
+    private final LongAdder dropped = new LongAdder();
+    private long lastOk;
+    private long lastTimeouts;
+    private long lastErrors;
+    private long lastDropped;
+
+    private final long startMs = System.currentTimeMillis();
+    private long lastReportMs = startMs;
+
+    private final HistogramLogWriter hlog;
+    private final PrintStream hlogOut;
+    private volatile boolean closed;
+
+    LatencyRecorder(ScheduledExecutorService scheduler, int intervalSeconds, String hlogFile) {
+        PrintStream out = null;
+        HistogramLogWriter writer = null;
+        if (hlogFile != null && !hlogFile.trim().isEmpty()) {
+            try {
+                out = new PrintStream(hlogFile);
+                writer = new HistogramLogWriter(out);
+                writer.outputLogFormatVersion();
+                writer.outputStartTime(startMs);
+                writer.setBaseTime(startMs);
+                writer.outputLegend();
+            } catch (FileNotFoundException e) {
+                log.warn("TRANS_STAT cannot open hlog file {}: {}", hlogFile, e.toString());
+            }
+        }
+        this.hlogOut = out;
+        this.hlog = writer;
+
+        int every = Math.max(1, intervalSeconds);
+        scheduler.scheduleAtFixedRate(this::report, every, every, TimeUnit.SECONDS);
+    }
+
+    void recordOk(long latencyNanos) {
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        ok.increment();
+    }
+
+    void recordTimeout(long latencyNanos) {
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        timeouts.increment();
+    }
+
+    void recordError(long latencyNanos) {
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        errors.increment();
+    }
+
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    synchronized void report() {
+        if (closed) return;
+        try {
+            long now = System.currentTimeMillis();
+            interval = recorder.getIntervalHistogram(interval);
+            interval.setStartTimeStamp(lastReportMs);
+            interval.setEndTimeStamp(now);
+            total.add(interval);
+            if (hlog != null) {
+                hlog.outputIntervalHistogram(interval);
+            }
+
+            long curOk = ok.sum(), curTimeouts = timeouts.sum(), curErrors = errors.sum(), curDropped = dropped.sum();
+            long dOk = curOk - lastOk, dTimeouts = curTimeouts - lastTimeouts, dErrors = curErrors - lastErrors;
+            long dDropped = curDropped - lastDropped;
+            lastOk = curOk;
+            lastTimeouts = curTimeouts;
+            lastErrors = curErrors;
+            lastDropped = curDropped;
+
+            double seconds = Math.max(1, now - lastReportMs) / 1000.0;
+            lastReportMs = now;
+
+            log.info("TRANS_STAT qps={} ok={} timeout={} err={} dropped={} {}",
+                    String.format("%.1f", (dOk + dTimeouts + dErrors) / seconds), dOk, dTimeouts, dErrors, dDropped,
+                    percentiles(interval));
+        } catch (Throwable t) {
+            log.error("TRANS_STAT report failed", t);
+        }
+    }
+
+    synchronized void close() {
+        if (closed) return;
+        report();
+        closed = true;
+
+        long count = ok.sum() + timeouts.sum() + errors.sum();
+        double seconds = Math.max(1, System.currentTimeMillis() - startMs) / 1000.0;
+        log.info("TRANS_SUMMARY durationSec={} requests={} avgQps={} ok={} timeout={} err={} dropped={} {}",
+                String.format("%.1f", seconds), count, String.format("%.1f", count / seconds),
+                ok.sum(), timeouts.sum(), errors.sum(), dropped.sum(), percentiles(total));
+        if (hlogOut != null) {
+            hlogOut.close();
+        }
+    }
+
+    private static String percentiles(Histogram h) {
+        if (h.getTotalCount() == 0) {
+            return "p50=- p90=- p99=- p999=- max=-";
+        }
+        return "p50=" + ms(h.getValueAtPercentile(50))
+                + " p90=" + ms(h.getValueAtPercentile(90))
+                + " p99=" + ms(h.getValueAtPercentile(99))
+                + " p999=" + ms(h.getValueAtPercentile(99.9))
+                + " max=" + ms(h.getMaxValue());
+    }
+
+    private static String ms(long micros) {
+        return String.format("%.1fms", micros / 1000.0);
+    }
+}
@@ -6,26 +6,44 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.*;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 @SpringBootApplication
 public class TransApplication implements CommandLineRunner {
     private static final Logger log = LoggerFactory.getLogger(TransApplication.class);
 
+    static final String DEADLINE_HEADER = "X-Deadline";
+
+    // closed: 令牌桶（原来的方式）；open: 按计划时间发，耗时从计划时间算（coordinated-omission 正确）
+    // replay: 按 JSONL 抓包里的相对时间重放请求体
+    @Value("${trans.mode:closed}")
+    private String mode;
+
     @Value("${trans.pushUrl}")
     private String pushUrl;
 
     @Value("${trans.timeoutSeconds:4}")
     private long timeoutSeconds;
 
+    // 请求头带绝对截止时间（发出时间 + timeoutSeconds），push/order 过期就不再干活
+    @Value("${trans.deadlineHeader:true}")
+    private boolean deadlineHeader;
+
     // rate control
     @Value("${trans.qps:10}")
     private double qps;
@@ -40,6 +58,14 @@ public class TransApplication implements CommandLineRunner {
     @Value("${trans.concurrency:100}")
     private int concurrency;
 
+    // 发请求用的连接数，<=0 表示跟 concurrency 一致
+    @Value("${trans.maxConnections:0}")
+    private int maxConnections;
+
+    // closed 模式下 dispatcher 每次最多批量取多少个令牌/许可
+    @Value("${trans.launchBatch:64}")
+    private int launchBatch;
+
     // jitter
     @Value("${trans.jitterMsMax:150}")
     private int jitterMsMax;
@@ -76,21 +102,54 @@ public class TransApplication implements CommandLineRunner {
     @Value("${trans.pause.durationMsMax:4500}")
     private int pauseDurationMsMax;
 
+    // replay
+    @Value("${trans.replay.file:}")
+    private String replayFile;
+
+    @Value("${trans.replay.timestampField:ts}")
+    private String replayTimestampField;
+
+    // 1 = 原速，2 = 两倍速；<=0 表示不等时间，并发允许就发
+    @Value("${trans.replay.speed:1.0}")
+    private double replaySpeed;
+
+    @Value("${trans.replay.loop:false}")
+    private boolean replayLoop;
+
+    // report
+    @Value("${trans.report.intervalSeconds:1}")
+    private int reportIntervalSeconds;
+
+    @Value("${trans.report.hlogFile:trans-latency.hlog}")
+    private String reportHlogFile;
+
+    // 高 QPS 下逐条打日志本身就是瓶颈，关掉后只看 TRANS_STAT
+    @Value("${trans.report.logEachRequest:true}")
+    private boolean logEachRequest;
+
+    private LatencyRecorder recorder;
+
     public static void main(String[] args) {
         SpringApplication.run(TransApplication.class, args);
     }
 
     @Override
     public void run(String... args) {
-        final WebClient client = WebClient.builder().build();
+        // 连接池默认只有 max(核数,8)*2 个连接，并发一高 trans 自己就排队了；默认跟 concurrency 一样大
+        int connections = maxConnections > 0 ? maxConnections : concurrency;
+        // 排队的取连接请求不限个数（跟原来 fixed 一样），在途已经被下面的 concurrency 门闩限住了
+        final ConnectionProvider provider = ConnectionProvider.builder("trans")
+                .maxConnections(connections)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        final WebClient client = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(provider)))
+                .build();
         final AtomicLong seq = new AtomicLong(0);
 
         // 并发门闩：在途请求 <= concurrency
         final Semaphore inflight = new Semaphore(concurrency);
 
-        // 令牌桶：控制平均QPS
-        final TokenBucket bucket = new TokenBucket(tokenBucketCapacity);
-
         // 调度线程：单线程更可控（不会像 interval 那样溢出）
         final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, r -> {
             Thread t = new Thread(r);
@@ -99,7 +158,42 @@ public class TransApplication implements CommandLineRunner {
             return t;
         });
 
-        // worker：用于等待信号量/做少量 sleep，不阻塞 reactor
+        recorder = new LatencyRecorder(scheduler, reportIntervalSeconds, reportHlogFile);
+
+        final TrafficShaper shaper = new TrafficShaper(
+                scheduler,
+                burstEnabled, burstProbabilityPerSecond, burstDurationMsMin, burstDurationMsMax, burstFactorMin, burstFactorMax,
+                pauseEnabled, pauseProbabilityPerSecond, pauseDurationMsMin, pauseDurationMsMax
+        );
+
+        if ("replay".equalsIgnoreCase(mode)) {
+            startReplay(client, seq, inflight);
+        } else if ("open".equalsIgnoreCase(mode)) {
+            startOpenLoop(client, seq, inflight, shaper);
+        } else {
+            startClosedLoop(client, seq, inflight, shaper);
+        }
+
+        log.info("Trans started: mode={} pushUrl={} qps={} concurrency={} tokenRefillMs={} cap={} jitterMsMax={}",
+                mode, pushUrl, qps, concurrency, tokenRefillMs, tokenBucketCapacity, jitterMsMax);
+        if ("replay".equalsIgnoreCase(mode)) {
+            log.info("Trans replay: file={} timestampField={} speed={} loop={}",
+                    replayFile, replayTimestampField, replaySpeed, replayLoop);
+        }
+    }
+
+    /**
+     * closed：令牌桶 + 信号量。并发满了 token 退回去等下一轮，push 变慢时 trans 也跟着少发，
+     * 而且从“实际发出”开始计时（会掩盖卡顿，即 coordinated omission）。
+     *
+     * 一个 dispatcher 线程批量取令牌 + 并发许可（每次最多 launchBatch 个），整批交给 launcher 发出；
+     * jitter 用 Mono.delay 延后发送，不再让 launcher 线程 sleep。
+     */
+    private void startClosedLoop(WebClient client, AtomicLong seq, Semaphore inflight, TrafficShaper shaper) {
+        // 令牌桶：控制平均QPS
+        final TokenBucket bucket = new TokenBucket(tokenBucketCapacity, qps);
+
+        // launcher：只负责把一批请求发出去（WebClient 异步），不做 sleep
         final ExecutorService launcher = Executors.newFixedThreadPool(
                 Math.min(8, Runtime.getRuntime().availableProcessors()),
                 r -> {
@@ -110,97 +204,320 @@ public class TransApplication implements CommandLineRunner {
                 }
         );
 
-        // 每 tokenRefillMs 补充令牌
-        final double baseTokensPerTick = qps * (tokenRefillMs / 1000.0);
-
-        final TrafficShaper shaper = new TrafficShaper(
-                scheduler,
-                burstEnabled, burstProbabilityPerSecond, burstDurationMsMin, burstDurationMsMax, burstFactorMin, burstFactorMax,
-                pauseEnabled, pauseProbabilityPerSecond, pauseDurationMsMin, pauseDurationMsMax
-        );
+        final long maxParkNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tokenRefillMs));
+        final int batch = Math.max(1, launchBatch);
+
+        Thread dispatcher = new Thread(() -> {
+            double lastFactor = 1.0;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    double factor = shaper.currentFactor(); // 可能是 0（pause），也可能 >1（burst）
+                    if (factor != lastFactor) {
+                        bucket.setRate(qps * factor);
+                        lastFactor = factor;
+                    }
 
-        scheduler.scheduleAtFixedRate(() -> {
-            try {
-                double factor = shaper.currentFactor(); // 可能是 0（pause），也可能 >1（burst）
-                double tokensToAdd = baseTokensPerTick * factor;
-                bucket.add(tokensToAdd);
+                    int tokens = bucket.tryAcquire(batch);
+                    if (tokens == 0) {
+                        LockSupport.parkNanos(Math.min(maxParkNanos, Math.max(1, bucket.nanosUntilNext())));
+                        continue;
+                    }
 
-                // 尝试发尽可能多的请求：受 token + inflight 限制
-                launcher.submit(() -> {
-                    while (bucket.tryConsumeOne()) {
-                        if (!inflight.tryAcquire()) {
-                            // 并发满了，把 token 退回去（避免丢QPS）
-                            bucket.add(1.0);
-                            break;
-                        }
+                    int permits = tryAcquireUpTo(inflight, tokens);
+                    // 并发满了，把 token 退回去（避免丢QPS）
+                    bucket.giveBack(tokens - permits);
+                    if (permits == 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                        continue;
+                    }
 
-                        // jitter：模拟不匀速（0~jitterMsMax）
-                        if (jitterMsMax > 0) {
-                            int jitter = ThreadLocalRandom.current().nextInt(0, jitterMsMax + 1);
+                    launcher.execute(() -> {
+                        for (int i = 0; i < permits; i++) {
+                            // jitter：模拟不匀速（0~jitterMsMax），延后发送但不占线程
+                            int jitter = jitterMsMax > 0 ? ThreadLocalRandom.current().nextInt(0, jitterMsMax + 1) : 0;
                             if (jitter > 0) {
-                                try { Thread.sleep(jitter); } catch (InterruptedException ignored) {}
+                                Mono.delay(Duration.ofMillis(jitter))
+                                        .subscribe(x -> fire(client, seq, inflight, System.nanoTime()));
+                            } else {
+                                fire(client, seq, inflight, System.nanoTime());
                             }
                         }
+                    });
+                } catch (Throwable t) {
+                    log.error("dispatcher loop failed", t);
+                }
+            }
+        }, "trans-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /** 非阻塞地拿最多 max 个并发许可 */
+    private static int tryAcquireUpTo(Semaphore sem, int max) {
+        while (true) {
+            int n = Math.min(max, sem.availablePermits());
+            if (n <= 0) return 0;
+            if (sem.tryAcquire(n)) return n;
+        }
+    }
+
+    /**
+     * open：按 qps * shaper 系数算出每个请求“应该发出”的时间点，到点就发（不等 push）。
+     * - 耗时从计划发出时间算起：trans 自己落后了（GC、线程调度），落后的部分也算进延迟
+     * - 并发满了不退 token，而是计为 dropped，TRANS_STAT 里能直接看到
+     * - jitter 只让单个请求的计划时间往后偏 0~jitterMsMax（在定时器上延后，耗时从它自己偏后的时间算），
+     *   pacer 照样按 next 走，不会拖慢整体节奏
+     */
+    private void startOpenLoop(WebClient client, AtomicLong seq, Semaphore inflight, TrafficShaper shaper) {
+        Thread pacer = new Thread(() -> {
+            final long pausePollNanos = TimeUnit.MILLISECONDS.toNanos(10);
+            long next = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    double rate = qps * shaper.currentFactor();
+                    if (rate <= 0) {
+                        // pause：这段时间本来就不该发，恢复后从当前时间重新排
+                        LockSupport.parkNanos(pausePollNanos);
+                        next = System.nanoTime();
+                        continue;
+                    }
+
+                    next += (long) (TimeUnit.SECONDS.toNanos(1) / rate);
 
-                        final String reqId = seq.incrementAndGet() + "-" + UUID.randomUUID().toString().substring(0, 8);
-                        final long start = System.currentTimeMillis();
-
-                        Map<String, Object> body = new LinkedHashMap<>();
-                        body.put("reqId", reqId);
-                        body.put("amt", 100);
-                        body.put("ts", System.currentTimeMillis());
-
-                        // 发请求（reactor异步），完成释放并发许可
-                        client.post()
-                                .uri(pushUrl)
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .bodyValue(body)
-                                .retrieve()
-                                .bodyToMono(String.class)
-                                .timeout(Duration.ofSeconds(timeoutSeconds))
-                                .doOnSuccess(resp -> {
-                                    long cost = System.currentTimeMillis() - start;
-                                    log.info("[OK] reqId={} costMs={}", reqId, cost);
-                                })
-                                .doOnError(ex -> {
-                                    long cost = System.currentTimeMillis() - start;
-                                    log.warn("[TIMEOUT/ERR] reqId={} costMs={} ex={}", reqId, cost, ex.getClass().getSimpleName());
-                                })
-                                .doFinally(sig -> inflight.release())
-                                .subscribe();
+                    // pacer 只按 next 走；jitter 在各自的定时器上延后，不占 pacer
+                    long wait;
+                    while ((wait = next - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
                     }
-                });
 
+                    int jitter = jitterMsMax > 0 ? ThreadLocalRandom.current().nextInt(0, jitterMsMax + 1) : 0;
+                    if (jitter > 0) {
+                        final long intended = next + TimeUnit.MILLISECONDS.toNanos(jitter);
+                        Mono.delay(Duration.ofMillis(jitter))
+                                .subscribe(x -> fireOpen(client, seq, inflight, intended));
+                    } else {
+                        fireOpen(client, seq, inflight, next);
+                    }
+                } catch (Throwable t) {
+                    log.error("open-loop pacer failed", t);
+                }
+            }
+        }, "trans-pacer");
+        pacer.setDaemon(true);
+        pacer.start();
+    }
+
+    /** open 到点发一个：并发满了计为 dropped，耗时从 intended 算 */
+    private void fireOpen(WebClient client, AtomicLong seq, Semaphore inflight, long intended) {
+        if (!inflight.tryAcquire()) {
+            recorder.recordDropped();
+            return;
+        }
+        fire(client, seq, inflight, intended);
+    }
+
+    /**
+     * replay：顺序读 JSONL 抓包，每行在 “开始时间 + 相对时间 / speed” 发出。
+     * 节奏和 open 一样：不等 push，耗时从计划时间算，并发满了计为 dropped；
+     * speed<=0 时不看时间，能发就发（并发满了等许可，不丢）。
+     * 文件只在 replay 线程里逐行读，不整个加载进内存。
+     */
+    private void startReplay(WebClient client, AtomicLong seq, Semaphore inflight) {
+        if (replayFile == null || replayFile.trim().isEmpty()) {
+            throw new IllegalStateException("trans.mode=replay requires trans.replay.file");
+        }
+        final JsonlCapture capture;
+        try {
+            capture = new JsonlCapture(replayFile.trim(), replayTimestampField);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot open replay file " + replayFile, e);
+        }
+
+        Thread replayer = new Thread(() -> {
+            final boolean paced = replaySpeed > 0;
+            long base = System.nanoTime();
+            long sent = 0;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    JsonlCapture.Record rec = capture.next();
+                    if (rec == null) {
+                        if (!replayLoop) break;
+                        log.info("REPLAY rewind file={} lines={} sent={}", replayFile, capture.lines(), sent);
+                        capture.rewind();
+                        base = System.nanoTime();
+                        continue;
+                    }
+
+                    long intended;
+                    if (paced) {
+                        intended = base + (long) (TimeUnit.MILLISECONDS.toNanos(rec.offsetMs) / replaySpeed);
+                        long wait;
+                        while ((wait = intended - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        if (!inflight.tryAcquire()) {
+                            recorder.recordDropped();
+                            continue;
+                        }
+                    } else {
+                        inflight.acquire();
+                        intended = System.nanoTime();
+                    }
+
+                    String reqId = rec.reqId != null ? rec.reqId : nextReqId(seq);
+                    send(client, inflight, intended, reqId, rec.body);
+                    sent++;
+                }
+                log.info("REPLAY done file={} lines={} skipped={} sent={}",
+                        replayFile, capture.lines(), capture.skipped(), sent);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (Throwable t) {
-                log.error("scheduler tick failed", t);
+                log.error("REPLAY failed file={} lines={}", replayFile, capture.lines(), t);
+            } finally {
+                try {
+                    capture.close();
+                } catch (IOException ignore) {
+                    // 只读文件，关不掉也无所谓
+                }
             }
-        }, 0, tokenRefillMs, TimeUnit.MILLISECONDS);
+        }, "trans-replay");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    private static String nextReqId(AtomicLong seq) {
+        return seq.incrementAndGet() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /** 发一个合成请求（reqId/amt/ts），耗时从 startNanos 算起 */
+    private void fire(WebClient client, AtomicLong seq, Semaphore inflight, long startNanos) {
+        final String reqId = nextReqId(seq);
 
-        log.info("Trans started: pushUrl={} qps={} concurrency={} tokenRefillMs={} cap={} jitterMsMax={}",
-                pushUrl, qps, concurrency, tokenRefillMs, tokenBucketCapacity, jitterMsMax);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("reqId", reqId);
+        body.put("amt", 100);
+        body.put("ts", System.currentTimeMillis());
+
+        send(client, inflight, startNanos, reqId, body);
+    }
+
+    /** 发一个请求（reactor 异步），body 是 Map 或原始 JSON 文本；完成释放并发许可 */
+    private void send(WebClient client, Semaphore inflight, long startNanos, String reqId, Object body) {
+        client.post()
+                .uri(pushUrl)
+                .contentType(MediaType.APPLICATION_JSON)
+                .headers(h -> {
+                    if (deadlineHeader) {
+                        h.set(DEADLINE_HEADER, Long.toString(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds)));
+                    }
+                })
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(String.class)
+                .timeout(Duration.ofSeconds(timeoutSeconds))
+                .doOnSuccess(resp -> {
+                    long costNanos = System.nanoTime() - startNanos;
+                    recorder.recordOk(costNanos);
+                    if (logEachRequest) {
+                        log.info("[OK] reqId={} costMs={}", reqId, TimeUnit.NANOSECONDS.toMillis(costNanos));
+                    }
+                })
+                .doOnError(ex -> {
+                    long costNanos = System.nanoTime() - startNanos;
+                    if (ex instanceof TimeoutException) {
+                        recorder.recordTimeout(costNanos);
+                    } else {
+                        recorder.recordError(costNanos);
+                    }
+                    if (logEachRequest) {
+                        log.warn("[TIMEOUT/ERR] reqId={} costMs={} ex={}", reqId,
+                                TimeUnit.NANOSECONDS.toMillis(costNanos), ex.getClass().getSimpleName());
+                    }
+                })
+                .doFinally(sig -> inflight.release())
+                .subscribe();
     }
 
-    // ====== 简单的 token bucket（线程安全，支持小数累积）======
+    // 停止时（stop.sh 发 SIGTERM）输出全程汇总并关闭 .hlog
+    @PreDestroy
+    public void shutdown() {
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    // ====== 无锁、按时间连续补充的 token bucket（支持小数累积、批量取）======
+    // 状态是不可变对象，CAS 整体替换；令牌数 = 上次令牌数 + (now - 上次时间) * 速率，不需要定时 tick
     static class TokenBucket {
-        private final int capacity;
-        private double tokens;
+        private static final class State {
+            final double tokens;
+            final long atNanos;
+            final double perNano;
+
+            State(double tokens, long atNanos, double perNano) {
+                this.tokens = tokens;
+                this.atNanos = atNanos;
+                this.perNano = perNano;
+            }
+        }
+
+        private final double capacity;
+        private final AtomicReference<State> state;
 
-        TokenBucket(int capacity) {
+        TokenBucket(int capacity, double ratePerSecond) {
             this.capacity = Math.max(1, capacity);
-            this.tokens = 0.0;
+            this.state = new AtomicReference<>(new State(0.0, System.nanoTime(), perNano(ratePerSecond)));
         }
 
-        synchronized void add(double n) {
-            if (n <= 0) return;
-            tokens = Math.min(capacity, tokens + n);
+        /** 改速率（burst/pause）：先按旧速率补到现在，再换新速率 */
+        void setRate(double ratePerSecond) {
+            double perNano = perNano(ratePerSecond);
+            while (true) {
+                State cur = state.get();
+                long now = System.nanoTime();
+                if (state.compareAndSet(cur, new State(refill(cur, now), now, perNano))) return;
+            }
+        }
+
+        /** 最多取 max 个令牌，返回实际取到的个数（可能为 0） */
+        int tryAcquire(int max) {
+            while (true) {
+                State cur = state.get();
+                long now = System.nanoTime();
+                double tokens = refill(cur, now);
+                int n = (int) Math.min(max, Math.floor(tokens));
+                if (n <= 0) return 0;
+                if (state.compareAndSet(cur, new State(tokens - n, now, cur.perNano))) return n;
+            }
         }
 
-        synchronized boolean tryConsumeOne() {
-            if (tokens >= 1.0) {
-                tokens -= 1.0;
-                return true;
+        /** 没用掉的令牌退回去 */
+        void giveBack(int n) {
+            if (n <= 0) return;
+            while (true) {
+                State cur = state.get();
+                long now = System.nanoTime();
+                double tokens = Math.min(capacity, refill(cur, now) + n);
+                if (state.compareAndSet(cur, new State(tokens, now, cur.perNano))) return;
             }
-            return false;
+        }
+
+        /** 距离攒够 1 个令牌还要多久；速率为 0（pause）返回 Long.MAX_VALUE */
+        long nanosUntilNext() {
+            State cur = state.get();
+            double missing = 1.0 - refill(cur, System.nanoTime());
+            if (missing <= 0) return 0;
+            if (cur.perNano <= 0) return Long.MAX_VALUE;
+            return (long) Math.ceil(missing / cur.perNano);
+        }
+
+        private double refill(State s, long now) {
+            return Math.min(capacity, s.tokens + Math.max(0, now - s.atNanos) * s.perNano);
+        }
+
+        private static double perNano(double ratePerSecond) {
+            return Math.max(0, ratePerSecond) / TimeUnit.SECONDS.toNanos(1);
         }
     }
 